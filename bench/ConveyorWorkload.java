@@ -0,0 +1,78 @@
+import benchmarks.Workload;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Moves presents through a belt for the `ConveyorBenchmark`, with one or more producers feeding a single consumer.
+ * @author Jacob
+ * @see Conveyor
+ * @see SpscConveyor
+ */
+public class ConveyorWorkload implements Workload {
+    private final int producers;
+    private final int presents;
+
+    /** A few presents which are put on the belt over and over, it never reads them. */
+    private final Present[] pool;
+
+    private final Conveyor belt;
+
+    /**
+     * @param belt The belt and its producers, as `monitor.Nto1` for a Conveyor fed by N producers, or `spsc.1to1`
+     *             for a SpscConveyor, which only allows one.
+     * @param length The length of the belt.
+     * @param presents The number of presents moved through the belt in each invocation.
+     */
+    public ConveyorWorkload(String belt, int length, int presents) {
+        Main.setLoggingLevels();
+
+        String[] fields = belt.split("\\.");
+        if (fields.length != 2 || !fields[1].endsWith("to1")) {
+            throw new IllegalArgumentException("Unknown belt: " + belt);
+        }
+        producers = Integer.parseInt(fields[1].substring(0, fields[1].length() - "to1".length()));
+        this.presents = presents;
+
+        if ("spsc".equals(fields[0]) && producers == 1) {
+            this.belt = new SpscConveyor(1, length);
+        } else if ("monitor".equals(fields[0])) {
+            this.belt = new Conveyor(1, length);
+        } else {
+            throw new IllegalArgumentException("Unknown belt: " + belt);
+        }
+
+        PresentStore store = new PresentStore();
+        pool = new Present[16];
+        for (int i = 0; i < pool.length; ++i) {
+            pool[i] = store.newPresent(0);
+        }
+    }
+
+    @Override
+    public void run(Blackhole blackhole) throws InterruptedException {
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; ++p) {
+            // Spread the presents over the producers, the first taking any remainder
+            int count = presents / producers + ((p == 0) ? presents % producers : 0);
+            threads[p] = new Thread(() -> produce(count), "Producer " + p);
+            threads[p].start();
+        }
+
+        for (int i = 0; i < presents; ++i) {
+            blackhole.consume(belt.takePresent());
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void produce(int count) {
+        try {
+            for (int i = 0; i < count; ++i) {
+                belt.putPresent(pool[i & (pool.length - 1)]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import benchmarks.Workload;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Makes the per-present routing lookup a Turntable makes in `run`, for the `RoutingBenchmark`.
+ * Every Turntable of a scenario is asked to route a present to every Sack it can reach from each of its inputs,
+ * in turn, so lookups which need the policy to choose between ports are made alongside those which do not.
+ * @author Jacob
+ * @see Turntable#outputPortFor(int, int)
+ * @see RoutingPolicy
+ */
+public class RoutingWorkload implements Workload {
+    /** The Turntable, input port and present of every route through the scenario. */
+    private final Turntable[] tables;
+    private final int[] ports;
+    private final Present[] presents;
+
+    /** The route of the next lookup. */
+    private int route = 0;
+
+    /**
+     * @param scenario The configuration file of the machine to route through.
+     * @param policy The name of the policy choosing between ports leading to the same sack.
+     */
+    public RoutingWorkload(String scenario, String policy) {
+        Main.setLoggingLevels();
+        PresentSortingMachine.setLoggerLevel(Level.WARNING);
+
+        var machine = new PresentSortingMachine(scenario);
+        machine.setRoutingPolicy(RoutingPolicy.fromName(policy));
+        PresentStore store = new PresentStore();
+
+        List<Turntable> routeTables = new ArrayList<>();
+        List<Integer> routePorts = new ArrayList<>();
+        List<Present> routePresents = new ArrayList<>();
+        for (Turntable table : machine.getTables()) {
+            for (int port = 0; port < 4; ++port) {
+                Connection conn = table.getConnection(port);
+                if (conn == null || conn.connType != ConnectionType.InputBelt) {
+                    continue;
+                }
+
+                for (int sackIndex = 0; sackIndex < machine.getSacks().length; ++sackIndex) {
+                    Present present = store.newPresent(sackIndex);
+                    try {
+                        table.outputPortFor(port, present.getSackIndex());
+                    } catch (IllegalStateException e) {
+                        // The sack cannot be reached from this input
+                        continue;
+                    }
+                    routeTables.add(table);
+                    routePorts.add(port);
+                    routePresents.add(present);
+                }
+            }
+        }
+
+        tables = routeTables.toArray(new Turntable[0]);
+        ports = routePorts.stream().mapToInt(Integer::intValue).toArray();
+        presents = routePresents.toArray(new Present[0]);
+    }
+
+    @Override
+    public void run(Blackhole blackhole) {
+        blackhole.consume(tables[route].outputPortFor(ports[route], presents[route].getSackIndex()));
+        if (++route == tables.length) {
+            route = 0;
+        }
+    }
+}
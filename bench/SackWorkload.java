@@ -0,0 +1,86 @@
+import benchmarks.Workload;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Puts presents into Sacks for the `SackBenchmark`, while Elves empty the Sacks as they fill up.
+ * Elves empty Sacks instantly, so only the handover between the Sacks, the queue of full Sacks and the
+ * Elves is measured.
+ * @author Jacob
+ * @see Sack
+ * @see Elf
+ */
+public class SackWorkload implements Workload {
+    private final int producers;
+    private final int presents;
+
+    private final Present present = new PresentStore().newPresent(0);
+
+    private final Sack[] sacks;
+    private final Thread[] elves;
+
+    /**
+     * Starts the Elves, which run until `tearDown()`.
+     * @param producers The number of threads putting presents into the Sacks, as Turntables would.
+     * @param elfCount The number of Elves emptying the Sacks.
+     * @param sackCount The number of Sacks, the producers take turns between them.
+     * @param capacity The capacity of each Sack.
+     * @param presents The number of presents put into the Sacks in each invocation.
+     */
+    public SackWorkload(int producers, int elfCount, int sackCount, int capacity, int presents) {
+        Main.setLoggingLevels();
+        this.producers = producers;
+        this.presents = presents;
+
+        BlockingQueue<Sack> fullSacks = new LinkedBlockingQueue<>();
+        MachineMetrics metrics = new MachineMetrics();
+
+        sacks = new Sack[sackCount];
+        for (int i = 0; i < sackCount; ++i) {
+            sacks[i] = new Sack(i + 1, PresentSlots.ofObjects(capacity), "0-3", fullSacks, metrics);
+        }
+
+        elves = new Thread[elfCount];
+        for (int i = 0; i < elfCount; ++i) {
+            elves[i] = new Thread(new Elf(i + 1, fullSacks, 0), "Elf " + (i + 1));
+            elves[i].start();
+        }
+    }
+
+    @Override
+    public void run(Blackhole blackhole) throws InterruptedException {
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; ++p) {
+            int count = presents / producers + ((p == 0) ? presents % producers : 0);
+            int first = p;
+            threads[p] = new Thread(() -> produce(first, count), "Producer " + p);
+            threads[p].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void produce(int first, int count) {
+        try {
+            for (int i = 0; i < count; ++i) {
+                sacks[(first + i) % sacks.length].putPresent(present);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void tearDown() throws InterruptedException {
+        for (Thread elf : elves) {
+            elf.interrupt();
+        }
+        for (Thread elf : elves) {
+            elf.join();
+        }
+    }
+}
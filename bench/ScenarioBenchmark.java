@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs whole scenarios through the PresentSortingMachine and reports how fast they were sorted.
+ * Each scenario is run headless, with its delays scaled down (or in virtual time, with no delays at all),
+ * and reported with its throughput, the end-to-end latency of its presents (from Hopper deposit to Sack),
+ * the CPU time of the threads running it and the memory they allocated.
+ * Results are printed as a table and can be saved as JSON or CSV for other tools to compare.
+ * For repeated timings of the same runs, with warmup and error bounds, see JMH's `MachineBenchmark`.
+ * @author Jacob
+ * @see PresentSortingMachine
+ * @see ScenarioGenerator
+ * @see ScenarioWorkload
+ */
+public class ScenarioBenchmark {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private double timeScale = 0.01;
+    private boolean virtualTime = false;
+    private boolean elvesFromStart = false;
+    private boolean endWhenEmpty = false;
+    private int intakeBatch = 1;
+    private int turntableSlots = 1;
+    private boolean compactBuffers = false;
+    private ComponentRuntime runtime = ComponentRuntime.PLATFORM;
+
+    /**
+     * The measurements of a single scenario.
+     */
+    private static class Result {
+        String scenario;
+        int presents;
+        int collected;
+        long runTime;
+        long wallTime;
+        long p50;
+        long p90;
+        long p99;
+        long max;
+        long cpuTime;
+        long allocatedBytes;
+
+        double presentsPerSecond() {
+            return collected / Math.max(1e-9, wallTime / 1e9);
+        }
+
+        double allocationRate() {
+            return allocatedBytes / Math.max(1e-9, wallTime / 1e9);
+        }
+    }
+
+    /**
+     * Runs the scenarios, then prints the results.
+     * @param args Command-line arguments: scenario files or directories of them (the scenarios directory if none),
+     *             `--time-scale F` to run F times as slow as real time (0.01 by default), `--virtual-time` to
+     *             simulate the scenarios instead, `--elves-from-start`, `--end-when-empty`, `--intake-batch N`,
+     *             `--turntable-slots N`, `--compact-buffers` and `--runtime RUNTIME` as for Main, and `--json FILE` and `--csv FILE` to save the results.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Main.setLoggingLevels();
+        PresentSortingMachine.setLoggerLevel(Level.WARNING);
+
+        var benchmark = new ScenarioBenchmark();
+        List<String> paths = new ArrayList<>();
+        String jsonFile = null;
+        String csvFile = null;
+
+        for (int i = 0; i < args.length; ++i) {
+            if ("--time-scale".equals(args[i])) {
+                benchmark.timeScale = Double.parseDouble(args[++i]);
+            } else if ("--virtual-time".equals(args[i])) {
+                benchmark.virtualTime = true;
+            } else if ("--elves-from-start".equals(args[i])) {
+                benchmark.elvesFromStart = true;
+            } else if ("--end-when-empty".equals(args[i])) {
+                benchmark.endWhenEmpty = true;
+            } else if ("--intake-batch".equals(args[i])) {
+                benchmark.intakeBatch = Integer.parseInt(args[++i]);
+            } else if ("--turntable-slots".equals(args[i])) {
+                benchmark.turntableSlots = Integer.parseInt(args[++i]);
+            } else if ("--compact-buffers".equals(args[i])) {
+                benchmark.compactBuffers = true;
+            } else if ("--runtime".equals(args[i])) {
+                benchmark.runtime = ComponentRuntime.fromName(args[++i]);
+            } else if ("--json".equals(args[i])) {
+                jsonFile = args[++i];
+            } else if ("--csv".equals(args[i])) {
+                csvFile = args[++i];
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add("scenarios");
+        }
+        // Fail before running anything rather than after the first scenario
+        new MachineClock(benchmark.timeScale);
+
+        List<Result> results = new ArrayList<>();
+        for (String scenario : scenarioFiles(paths)) {
+            System.out.println("Running " + scenario + "...");
+            results.add(benchmark.run(scenario));
+        }
+
+        printTable(results);
+        if (jsonFile != null) {
+            writeJson(jsonFile, results, benchmark);
+        }
+        if (csvFile != null) {
+            writeCsv(csvFile, results);
+        }
+    }
+
+    /**
+     * @param paths Scenario files, or directories of them.
+     * @return Every scenario file, in order, with the files of each directory sorted by name.
+     */
+    private static List<String> scenarioFiles(List<String> paths) throws IOException {
+        List<String> files = new ArrayList<>();
+        for (String path : paths) {
+            if (!Files.isDirectory(Path.of(path))) {
+                files.add(path);
+                continue;
+            }
+
+            try (Stream<Path> directory = Files.list(Path.of(path))) {
+                files.addAll(directory.filter(Files::isRegularFile).map(Path::toString).sorted()
+                        .collect(Collectors.toList()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Run a scenario, with the machine's own output silenced.
+     * @param scenario The scenario file.
+     * @return The measurements.
+     */
+    private Result run(String scenario) throws InterruptedException {
+        var machine = new PresentSortingMachine(scenario, compactBuffers, 0);
+        machine.setElvesFromStart(elvesFromStart);
+        machine.setEndWhenEmpty(endWhenEmpty);
+        machine.setIntakeBatch(intakeBatch);
+        machine.setTurntableSlots(turntableSlots);
+        machine.setComponentRuntime(runtime);
+        machine.setTimeScale(timeScale);
+        // Registering thousands of beans would be timed as part of the run
+        machine.setManagementEnabled(false);
+        ThreadUsage usage = new ThreadUsage();
+        machine.setThreadUsage(usage);
+
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        // This thread runs the simulation, or the machine's timer and shutdown when running in real time
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        long allocatedStart = ThreadUsage.allocatedBytes(Thread.currentThread());
+        long wallStart = System.nanoTime();
+        try {
+            if (virtualTime) {
+                machine.simulate();
+            } else {
+                machine.run();
+            }
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+
+        Result result = new Result();
+        result.wallTime = System.nanoTime() - wallStart;
+        result.cpuTime = usage.getCpuTime() + THREADS.getCurrentThreadCpuTime() - cpuStart;
+        result.allocatedBytes = usage.getAllocatedBytes()
+                + ThreadUsage.allocatedBytes(Thread.currentThread()) - allocatedStart;
+
+        MachineMetrics metrics = machine.getMetrics();
+        LatencyHistogram latency = metrics.getEndToEndLatency();
+        result.scenario = scenario;
+        result.presents = machine.getTotalPresents();
+        result.collected = metrics.getPresentsCollected();
+        result.runTime = machine.getRunTime();
+        result.p50 = latency.getPercentile(50);
+        result.p90 = latency.getPercentile(90);
+        result.p99 = latency.getPercentile(99);
+        result.max = latency.getMax();
+        return result;
+    }
+
+    private static void printTable(List<Result> results) {
+        System.out.printf("%n%-32s %8s %8s %8s %9s %12s %8s %8s %8s %8s %9s %10s%n", "Scenario", "Presents",
+                "Sorted", "Run (s)", "Wall (ms)", "Presents/s", "p50 (ms)", "p90 (ms)", "p99 (ms)", "Max (ms)",
+                "CPU (ms)", "Alloc MB/s");
+        for (Result result : results) {
+            System.out.printf("%-32s %8d %8d %8d %9d %12.1f %8d %8d %8d %8d %9d %10.1f%n", result.scenario,
+                    result.presents, result.collected, result.runTime / 1000, result.wallTime / 1_000_000,
+                    result.presentsPerSecond(), result.p50, result.p90, result.p99, result.max,
+                    result.cpuTime / 1_000_000, result.allocationRate() / (1 << 20));
+        }
+    }
+
+    private static void writeJson(String fileName, List<Result> results, ScenarioBenchmark benchmark)
+            throws IOException {
+        try (var out = new PrintWriter(Files.newBufferedWriter(Path.of(fileName), StandardCharsets.UTF_8))) {
+            out.println("{");
+            out.printf(Locale.ROOT, "  \"timeScale\": %s,%n", benchmark.virtualTime ? "null" : benchmark.timeScale);
+            out.printf("  \"virtualTime\": %b,%n", benchmark.virtualTime);
+            out.printf("  \"runtime\": \"%s\",%n", benchmark.runtime.getName());
+            out.println("  \"scenarios\": [");
+            for (int i = 0; i < results.size(); ++i) {
+                Result result = results.get(i);
+                out.printf(Locale.ROOT, "    {\"scenario\": \"%s\", \"presents\": %d, \"sorted\": %d, \"runTimeMs\": %d, "
+                                + "\"wallTimeMs\": %.3f, \"presentsPerSecond\": %.1f, \"latencyMs\": {\"p50\": %d, "
+                                + "\"p90\": %d, \"p99\": %d, \"max\": %d}, \"cpuTimeMs\": %.3f, \"allocatedBytes\": %d, "
+                                + "\"allocationRateBytesPerSecond\": %.1f}%s%n",
+                        result.scenario.replace("\\", "\\\\").replace("\"", "\\\""), result.presents,
+                        result.collected, result.runTime, result.wallTime / 1e6, result.presentsPerSecond(),
+                        result.p50, result.p90, result.p99, result.max, result.cpuTime / 1e6,
+                        result.allocatedBytes, result.allocationRate(), (i + 1 < results.size()) ? "," : "");
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+
+    private static void writeCsv(String fileName, List<Result> results) throws IOException {
+        try (var out = new PrintWriter(Files.newBufferedWriter(Path.of(fileName), StandardCharsets.UTF_8))) {
+            out.println("scenario,presents,sorted,run_time_ms,wall_time_ms,presents_per_second,p50_ms,p90_ms,"
+                    + "p99_ms,max_ms,cpu_time_ms,allocated_bytes,allocation_rate_bytes_per_second");
+            for (Result result : results) {
+                out.printf(Locale.ROOT, "%s,%d,%d,%d,%.3f,%.1f,%d,%d,%d,%d,%.3f,%d,%.1f%n", result.scenario,
+                        result.presents, result.collected, result.runTime, result.wallTime / 1e6,
+                        result.presentsPerSecond(), result.p50, result.p90, result.p99, result.max,
+                        result.cpuTime / 1e6, result.allocatedBytes, result.allocationRate());
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates large configuration files for scale and load testing, in the same format as the hand-written
+ * scenarios.
+ * Two layouts are available:
+ * <ul>
+ *     <li>grid: a grid of turntables, each taking presents from the north and west and passing them on to the
+ *     east and south. Hoppers feed the top and left edges, and sacks collect from the bottom and right edges,
+ *     so there are many redundant paths between them.</li>
+ *     <li>tree: a tree of turntables, each passing presents from the north to up to three children, with the
+ *     sacks below the last level. Hoppers feed the root, and with at most two children also the free west
+ *     input of every turntable.</li>
+ * </ul>
+ * The sacks each hopper can reach are worked out from the layout, and its presents are only destined for
+ * those sacks, so every present is routable. Destinations follow a Zipf distribution, with sack popularity
+ * (and hopper speeds) skewed by a given exponent, 0 making them uniform.
+ * Unless the sacks are large enough for every present, add elves and run with `--elves-from-start`.
+ * @author Jacob
+ * @see ScenarioBenchmark
+ */
+public class ScenarioGenerator {
+    private static final String NULL_PORT = "null";
+
+    private String topology = "grid";
+    private int rows = 10;
+    private int columns = 10;
+    private int depth = 5;
+    private int branching = 2;
+    private int hoppers = 0;
+    private int presents = 100;
+    private int beltLength = 5;
+    private int sackCapacity = 20;
+    private int hopperSpeed = 2;
+    private double speedSkew = 0;
+    private double ageSkew = 0;
+    private int timer = 0;
+    private int elves = 0;
+    private int elfSpeed = 0;
+    private long seed = 1;
+
+    /** The layout being generated: belts, and the ports of each turntable. */
+    private final List<Integer> beltConsumers = new ArrayList<>();
+    private final List<String> tableIds = new ArrayList<>();
+    private final List<String[]> tablePorts = new ArrayList<>();
+    private final List<Integer> entryBelts = new ArrayList<>();
+    private int sacks = 0;
+
+    /**
+     * Generates a configuration file.
+     * @param args Command-line arguments: `--topology grid|tree`, `--rows R` and `--columns C` for a grid,
+     *             `--depth D` and `--branching B` (1 to 3) for a tree, `--hoppers H` (one per entry belt by
+     *             default), `--presents N` per hopper, `--belt-length L`, `--sack-capacity C`, `--hopper-speed S`
+     *             for the fastest hopper, `--speed-skew Z` and `--age-skew Z` for the Zipf exponents of the hopper
+     *             speeds and the sack popularity, `--timer T` (estimated from
+     *             the hoppers and entry turntables by default), `--elves E` and `--elf-speed S` to add an ELVES
+     *             section, `--seed S`, and `--output FILE` (standard output by default).
+     */
+    public static void main(String[] args) throws IOException {
+        String output = null;
+        List<String> options = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if ("--output".equals(args[i])) {
+                output = args[++i];
+            } else {
+                options.add(args[i]);
+            }
+        }
+
+        ScenarioGenerator generator = fromArgs(options.toArray(new String[0]));
+        if (output != null) {
+            generator.write(Path.of(output));
+        } else {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            generator.write(out);
+            out.flush();
+        }
+    }
+
+    /**
+     * Create a generator from command-line options, as described for `main`.
+     * @param args The options.
+     * @return The generator.
+     * @exception IllegalArgumentException When an option is not known or out of range.
+     */
+    public static ScenarioGenerator fromArgs(String... args) {
+        ScenarioGenerator generator = new ScenarioGenerator();
+        for (int i = 0; i < args.length; ++i) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Option " + option + " needs a value.");
+            }
+            String value = args[++i];
+
+            switch (option) {
+                case "--topology":
+                    generator.topology = value;
+                    break;
+                case "--rows":
+                    generator.rows = Integer.parseInt(value);
+                    break;
+                case "--columns":
+                    generator.columns = Integer.parseInt(value);
+                    break;
+                case "--depth":
+                    generator.depth = Integer.parseInt(value);
+                    break;
+                case "--branching":
+                    generator.branching = Integer.parseInt(value);
+                    break;
+                case "--hoppers":
+                    generator.hoppers = Integer.parseInt(value);
+                    break;
+                case "--presents":
+                    generator.presents = Integer.parseInt(value);
+                    break;
+                case "--belt-length":
+                    generator.beltLength = Integer.parseInt(value);
+                    break;
+                case "--sack-capacity":
+                    generator.sackCapacity = Integer.parseInt(value);
+                    break;
+                case "--hopper-speed":
+                    generator.hopperSpeed = Integer.parseInt(value);
+                    break;
+                case "--speed-skew":
+                    generator.speedSkew = Double.parseDouble(value);
+                    break;
+                case "--age-skew":
+                    generator.ageSkew = Double.parseDouble(value);
+                    break;
+                case "--timer":
+                    generator.timer = Integer.parseInt(value);
+                    break;
+                case "--elves":
+                    generator.elves = Integer.parseInt(value);
+                    break;
+                case "--elf-speed":
+                    generator.elfSpeed = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    generator.seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+
+        if (!"grid".equals(generator.topology) && !"tree".equals(generator.topology)) {
+            throw new IllegalArgumentException("Unknown topology: " + generator.topology);
+        }
+        if (generator.branching < 1 || generator.branching > 3) {
+            throw new IllegalArgumentException("A tree's branching must be between 1 and 3.");
+        }
+        if (generator.rows < 1 || generator.columns < 1 || generator.depth < 1 || generator.hopperSpeed < 1
+                || generator.presents < 0 || generator.beltLength < 1 || generator.sackCapacity < 1) {
+            throw new IllegalArgumentException("Sizes, lengths, capacities and speeds must be positive.");
+        }
+        return generator;
+    }
+
+    /**
+     * Write the configuration to a file.
+     * @param file The file.
+     */
+    public void write(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(out);
+        }
+    }
+
+    /**
+     * Write the configuration.
+     * @param out Where to write it.
+     */
+    public void write(Writer out) throws IOException {
+        beltConsumers.clear();
+        tableIds.clear();
+        tablePorts.clear();
+        entryBelts.clear();
+        sacks = 0;
+        if ("grid".equals(topology)) {
+            layOutGrid();
+        } else {
+            layOutTree();
+        }
+
+        Random random = new Random(seed);
+        BitSet[] reachable = reachableSacks();
+        int hopperCount = (hoppers > 0) ? hoppers : entryBelts.size();
+
+        out.write("BELTS\n" + beltConsumers.size() + "\n");
+        for (int belt = 0; belt < beltConsumers.size(); ++belt) {
+            StringBuilder line = new StringBuilder();
+            line.append(belt + 1).append(" length ").append(beltLength).append(" destinations");
+            for (int sack = reachable[belt].nextSetBit(0); sack >= 0; sack = reachable[belt].nextSetBit(sack + 1)) {
+                line.append(' ').append(sack + 1);
+            }
+            out.write(line.append('\n').toString());
+        }
+
+        // Hopper speeds fall off with a random rank, so the fastest hoppers are spread over the entries
+        int[] speeds = new int[hopperCount];
+        double[] speedWeights = zipfWeights(hopperCount, speedSkew);
+        int[] speedRanks = shuffledRange(hopperCount, random);
+        int slowest = hopperSpeed;
+        for (int i = 0; i < hopperCount; ++i) {
+            speeds[i] = Math.max(1, (int) Math.round(hopperSpeed * speedWeights[speedRanks[i]]));
+            slowest = Math.min(slowest, speeds[i]);
+        }
+
+        out.write("\nHOPPERS\n" + hopperCount + "\n");
+        for (int i = 0; i < hopperCount; ++i) {
+            out.write((i + 1) + " belt " + (entryBelts.get(i % entryBelts.size()) + 1) + " capacity "
+                    + Math.max(1, presents) + " speed " + speeds[i] + "\n");
+        }
+
+        out.write("\nSACKS\n" + sacks + "\n");
+        for (int sack = 0; sack < sacks; ++sack) {
+            out.write((sack + 1) + " capacity " + sackCapacity + " age " + ageRange(sack) + "\n");
+        }
+
+        out.write("\nTURNTABLES\n" + tableIds.size() + "\n");
+        for (int table = 0; table < tableIds.size(); ++table) {
+            String[] ports = tablePorts.get(table);
+            out.write(tableIds.get(table) + " N " + ports[0] + " E " + ports[1] + " S " + ports[2] + " W " + ports[3]
+                    + "\n");
+        }
+
+        // Sacks are ranked by popularity once, so every hopper favours the same sacks
+        int[] sackRanks = shuffledRange(sacks, random);
+        for (int i = 0; i < hopperCount; ++i) {
+            BitSet hopperSacks = reachable[entryBelts.get(i % entryBelts.size())];
+            int[] destinations = hopperSacks.stream().boxed()
+                    .sorted((a, b) -> Integer.compare(sackRanks[a], sackRanks[b]))
+                    .mapToInt(Integer::intValue).toArray();
+            double[] cumulative = zipfWeights(destinations.length, ageSkew);
+            for (int k = 1; k < cumulative.length; ++k) {
+                cumulative[k] += cumulative[k - 1];
+            }
+
+            out.write("\nPRESENTS " + (i + 1) + "\n" + presents + "\n");
+            for (int p = 0; p < presents; ++p) {
+                int k = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+                k = Math.min((k >= 0) ? k : -k - 1, destinations.length - 1);
+                out.write(ageRange(destinations[k]) + "\n");
+            }
+        }
+
+        if (elves > 0) {
+            out.write("\nELVES\n" + elves + "\n");
+            for (int i = 0; i < elves; ++i) {
+                out.write((i + 1) + " speed " + elfSpeed + "\n");
+            }
+        }
+
+        out.write("\nTIMER " + ((timer > 0) ? timer : defaultTimer(hopperCount, slowest)) + "\n");
+    }
+
+    /**
+     * @return A timer long enough for the slowest hopper to deposit every present, and for the busiest entry
+     * turntable to pass them on (taking at most 2s a present), plus the time to cross the longest path.
+     */
+    private int defaultTimer(int hopperCount, int slowest) {
+        int[] entryHoppers = new int[entryBelts.size()];
+        int busiest = 0;
+        for (int i = 0; i < hopperCount; ++i) {
+            busiest = Math.max(busiest, ++entryHoppers[i % entryHoppers.length]);
+        }
+
+        int longestPath = "grid".equals(topology) ? rows + columns : depth + 1;
+        long seconds = Math.max((presents + slowest - 1) / slowest, 2L * presents * busiest) + 2L * longestPath + 10;
+        return (int) Math.min(seconds, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Lay out a grid of turntables, presents moving east and south.
+     */
+    private void layOutGrid() {
+        // Belts leaving each turntable to the east and south, or -1 for a sack
+        int[][] east = new int[rows][columns];
+        int[][] south = new int[rows][columns];
+
+        for (int r = 0; r < rows; ++r) {
+            for (int c = 0; c < columns; ++c) {
+                tableIds.add("R" + (r + 1) + "C" + (c + 1));
+                tablePorts.add(new String[4]);
+            }
+        }
+
+        for (int r = 0; r < rows; ++r) {
+            for (int c = 0; c < columns; ++c) {
+                int table = r * columns + c;
+                String[] ports = tablePorts.get(table);
+
+                if (c + 1 < columns) {
+                    east[r][c] = newBelt(table + 1);
+                    ports[Turntable.E] = "ob " + (east[r][c] + 1);
+                } else {
+                    ports[Turntable.E] = "os " + (++sacks);
+                }
+
+                if (r + 1 < rows) {
+                    south[r][c] = newBelt(table + columns);
+                    ports[Turntable.S] = "ob " + (south[r][c] + 1);
+                } else {
+                    ports[Turntable.S] = "os " + (++sacks);
+                }
+
+                if (r == 0) {
+                    int belt = newBelt(table);
+                    entryBelts.add(belt);
+                    ports[Turntable.N] = "ib " + (belt + 1);
+                } else {
+                    ports[Turntable.N] = "ib " + (south[r - 1][c] + 1);
+                }
+
+                if (c == 0) {
+                    int belt = newBelt(table);
+                    entryBelts.add(belt);
+                    ports[Turntable.W] = "ib " + (belt + 1);
+                } else {
+                    ports[Turntable.W] = "ib " + (east[r][c - 1] + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lay out a tree of turntables, presents moving from the root towards the sacks.
+     */
+    private void layOutTree() {
+        int[] outputs = {Turntable.E, Turntable.S, Turntable.W};
+        List<Integer> level = new ArrayList<>();
+
+        // The root is fed by an entry belt
+        int root = newTable("T1");
+        int rootBelt = newBelt(root);
+        entryBelts.add(rootBelt);
+        tablePorts.get(root)[Turntable.N] = "ib " + (rootBelt + 1);
+        level.add(root);
+
+        for (int d = 1; d <= depth; ++d) {
+            List<Integer> next = new ArrayList<>();
+            for (int table : level) {
+                String[] ports = tablePorts.get(table);
+                for (int b = 0; b < branching; ++b) {
+                    if (d == depth) {
+                        ports[outputs[b]] = "os " + (++sacks);
+                        continue;
+                    }
+
+                    int child = newTable("T" + (tableIds.size() + 1));
+                    int belt = newBelt(child);
+                    ports[outputs[b]] = "ob " + (belt + 1);
+                    tablePorts.get(child)[Turntable.N] = "ib " + (belt + 1);
+                    next.add(child);
+                }
+
+                // A free west port takes presents from a hopper of its own
+                if (branching < 3) {
+                    int belt = newBelt(table);
+                    entryBelts.add(belt);
+                    ports[Turntable.W] = "ib " + (belt + 1);
+                }
+            }
+            level = next;
+        }
+
+        for (String[] ports : tablePorts) {
+            for (int port = 0; port < 4; ++port) {
+                if (ports[port] == null) {
+                    ports[port] = NULL_PORT;
+                }
+            }
+        }
+    }
+
+    private int newTable(String id) {
+        tableIds.add(id);
+        tablePorts.add(new String[4]);
+        return tableIds.size() - 1;
+    }
+
+    /**
+     * @param consumer The index of the turntable taking presents from the belt.
+     * @return The index of the new belt.
+     */
+    private int newBelt(int consumer) {
+        beltConsumers.add(consumer);
+        return beltConsumers.size() - 1;
+    }
+
+    /**
+     * @return The sacks which can be reached from each belt.
+     */
+    private BitSet[] reachableSacks() {
+        BitSet[] reachable = new BitSet[beltConsumers.size()];
+        for (int belt = 0; belt < reachable.length; ++belt) {
+            reachableSacks(belt, reachable);
+        }
+        return reachable;
+    }
+
+    private BitSet reachableSacks(int belt, BitSet[] reachable) {
+        if (reachable[belt] != null) {
+            return reachable[belt];
+        }
+
+        // Both layouts only ever move presents away from the entries, so there is no loop to guard against
+        BitSet sacksReached = new BitSet(sacks);
+        for (String port : tablePorts.get(beltConsumers.get(belt))) {
+            if (port.startsWith("os ")) {
+                sacksReached.set(Integer.parseInt(port.substring(3)) - 1);
+            } else if (port.startsWith("ob ")) {
+                sacksReached.or(reachableSacks(Integer.parseInt(port.substring(3)) - 1, reachable));
+            }
+        }
+        reachable[belt] = sacksReached;
+        return sacksReached;
+    }
+
+    /**
+     * @return The age range collected by a sack, unique to it.
+     */
+    private static String ageRange(int sack) {
+        return (2 * sack) + "-" + (2 * sack + 1);
+    }
+
+    /**
+     * @return The weight of each rank under a Zipf distribution with the given exponent, the first being 1.
+     */
+    private static double[] zipfWeights(int count, double exponent) {
+        double[] weights = new double[count];
+        for (int k = 0; k < count; ++k) {
+            weights[k] = 1 / Math.pow(k + 1, exponent);
+        }
+        return weights;
+    }
+
+    private static int[] shuffledRange(int count, Random random) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = i;
+        }
+        for (int i = count - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+        return values;
+    }
+}
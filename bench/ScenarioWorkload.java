@@ -0,0 +1,58 @@
+import benchmarks.Workload;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.logging.Level;
+
+/**
+ * Runs a whole scenario through the PresentSortingMachine for the `MachineBenchmark`, with the machine's own
+ * output silenced.
+ * @author Jacob
+ * @see ScenarioBenchmark
+ */
+public class ScenarioWorkload implements Workload {
+    private final String scenario;
+    private final boolean virtualTime;
+    private final double timeScale;
+
+    /** The machine the next invocation runs, loaded untimed. */
+    private PresentSortingMachine machine;
+
+    /**
+     * @param scenario The scenario file.
+     * @param virtualTime True to simulate the scenario, with no delays at all.
+     * @param timeScale How many times as slow as real time to run, when not simulating.
+     */
+    public ScenarioWorkload(String scenario, boolean virtualTime, double timeScale) {
+        Main.setLoggingLevels();
+        PresentSortingMachine.setLoggerLevel(Level.WARNING);
+        this.scenario = scenario;
+        this.virtualTime = virtualTime;
+        this.timeScale = timeScale;
+    }
+
+    @Override
+    public void setUp() {
+        machine = new PresentSortingMachine(scenario);
+        machine.setTimeScale(timeScale);
+        // Registering the beans of every run would be timed as part of it
+        machine.setManagementEnabled(false);
+    }
+
+    @Override
+    public void run(Blackhole blackhole) throws InterruptedException {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            if (virtualTime) {
+                machine.simulate();
+            } else {
+                machine.run();
+            }
+        } finally {
+            System.setOut(out);
+        }
+        blackhole.consume(machine.getMetrics().getPresentsCollected());
+    }
+}
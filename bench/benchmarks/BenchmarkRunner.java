@@ -0,0 +1,155 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the JMH benchmarks, as JMH's own `Main` does, and gates them on a baseline.
+ * JMH's results are written as JSON. Their scores can also be saved as CSV, and compared against a saved
+ * baseline, failing if any benchmark has regressed by more than a tolerance, so changes to the concurrency of a
+ * component can be gated on numbers.
+ * @author Jacob
+ */
+public class BenchmarkRunner {
+    private String jsonFile = "jmh-result.json";
+    private String csvFile = null;
+    private String baselineFile = null;
+    private double tolerance = 10;
+
+    /**
+     * Runs the benchmarks, then compares their scores against the baseline if given.
+     * @param args Command-line arguments: `--json FILE` to choose where JMH's results are written
+     *             (jmh-result.json by default), `--csv FILE` to save the scores, `--baseline FILE` to compare the
+     *             scores against ones saved earlier, exiting with 1 if any is more than `--tolerance PERCENT`
+     *             (10 by default) worse, and any of JMH's own options (e.g. `-f`, `-wi`, `-i`, `-p`, `-l`, or a
+     *             regular expression selecting benchmarks), see `-h`.
+     */
+    public static void main(String[] args) throws Exception {
+        var runner = new BenchmarkRunner();
+        List<String> jmhArgs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; ++i) {
+            if ("--json".equals(args[i])) {
+                runner.jsonFile = args[++i];
+            } else if ("--csv".equals(args[i])) {
+                runner.csvFile = args[++i];
+            } else if ("--baseline".equals(args[i])) {
+                runner.baselineFile = args[++i];
+            } else if ("--tolerance".equals(args[i])) {
+                runner.tolerance = Double.parseDouble(args[++i]);
+            } else {
+                jmhArgs.add(args[i]);
+            }
+        }
+
+        var jmhOptions = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        if (jmhOptions.shouldHelp() || jmhOptions.shouldList() || jmhOptions.shouldListWithParams()
+                || jmhOptions.shouldListProfilers() || jmhOptions.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+            return;
+        }
+
+        Options options = new OptionsBuilder()
+                .parent(jmhOptions)
+                .resultFormat(ResultFormatType.JSON)
+                .result(runner.jsonFile)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        if (results.isEmpty()) {
+            System.err.println("No benchmark was run, see -l.");
+            System.exit(1);
+        }
+        System.exit(runner.compare(results) ? 0 : 1);
+    }
+
+    /**
+     * Print the change in every benchmark's score from the baseline if given, and save the scores if asked to.
+     * @return False if a benchmark has regressed.
+     */
+    private boolean compare(Collection<RunResult> results) throws IOException {
+        Map<String, double[]> baseline = (baselineFile != null) ? readCsv(baselineFile) : new HashMap<>();
+        boolean passed = true;
+
+        System.out.println();
+        System.out.printf("%-70s %5s %16s %16s  %s%n", "Benchmark", "Cnt", "Score", "Error", "Units");
+        for (RunResult result : results) {
+            Result<?> primary = result.getPrimaryResult();
+            System.out.printf("%-70s %5d %16.3f +- %12.3f  %s", name(result.getParams()),
+                    primary.getStatistics().getN(), primary.getScore(), primary.getScoreError(),
+                    primary.getScoreUnit());
+
+            double[] base = baseline.get(name(result.getParams()));
+            if (base != null) {
+                double change = 100 * (primary.getScore() - base[1]) / base[1];
+                // Throughput is better higher, every other mode measures time, which is better lower
+                boolean regressed = (result.getParams().getMode() == Mode.Throughput)
+                        ? change < -tolerance : change > tolerance;
+                System.out.printf("  %+.1f%%%s", change, regressed ? "  REGRESSED" : "");
+                passed &= !regressed;
+            }
+            System.out.println();
+        }
+
+        if (csvFile != null) {
+            writeCsv(csvFile, results);
+        }
+        return passed;
+    }
+
+    /**
+     * @return The name a benchmark is saved under, with the values of its parameters, e.g.
+     * `benchmarks.ConveyorBenchmark.transfer belt=spsc.1to1 length=5`.
+     */
+    private static String name(BenchmarkParams params) {
+        StringBuilder name = new StringBuilder(params.getBenchmark());
+        for (String key : params.getParamsKeys()) {
+            name.append(' ').append(key).append('=').append(params.getParam(key));
+        }
+        return name.toString();
+    }
+
+    private static void writeCsv(String fileName, Collection<RunResult> results) throws IOException {
+        try (var out = new PrintWriter(Files.newBufferedWriter(Path.of(fileName), StandardCharsets.UTF_8))) {
+            out.println("benchmark,count,score,error,units");
+            for (RunResult result : results) {
+                Result<?> primary = result.getPrimaryResult();
+                out.printf(Locale.ROOT, "%s,%d,%.3f,%.3f,%s%n", name(result.getParams()),
+                        primary.getStatistics().getN(), primary.getScore(), primary.getScoreError(),
+                        primary.getScoreUnit());
+            }
+        }
+    }
+
+    /**
+     * @return The count, score and error of each benchmark in a CSV file written by `writeCsv`.
+     */
+    private static Map<String, double[]> readCsv(String fileName) throws IOException {
+        Map<String, double[]> results = new HashMap<>();
+        List<String> lines = Files.readAllLines(Path.of(fileName), StandardCharsets.UTF_8);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            results.put(fields[0], new double[]{Double.parseDouble(fields[1]), Double.parseDouble(fields[2]),
+                    Double.parseDouble(fields[3])});
+        }
+        return results;
+    }
+}
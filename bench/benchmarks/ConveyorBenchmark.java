@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of `Conveyor.putPresent` / `takePresent`, with one or more producers feeding a single consumer.
+ * Each invocation moves a batch of presents through the belt, put by producers started for the batch and taken by
+ * the benchmark's thread, rather than running producers and consumer as a JMH group: a thread blocked on the belt
+ * when its partner's iteration ends would never see its own end.
+ * @author Jacob
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConveyorBenchmark {
+    /** The number of presents moved through the belt in each invocation. */
+    static final int PRESENTS = 100_000;
+
+    /** The belt (`monitor` for a Conveyor, `spsc` for a SpscConveyor) and the number of producers feeding it. */
+    @Param({"monitor.1to1", "spsc.1to1", "monitor.4to1"})
+    public String belt;
+
+    @Param({"5", "64"})
+    public int length;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        workload = Workload.create("ConveyorWorkload", belt, length, PRESENTS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PRESENTS)
+    public void transfer(Blackhole blackhole) throws InterruptedException {
+        workload.run(blackhole);
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for the whole PresentSortingMachine to sort a scenario, from starting the machine to its report, each
+ * invocation a single run on a freshly loaded machine.
+ * The scenario benchmark (`ScenarioBenchmark`) runs the same scenarios once each to report their latency, CPU
+ * time and allocation, which JMH does not measure.
+ * @author Jacob
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MachineBenchmark {
+    /** The scenario file, relative to the working directory. */
+    @Param({"scenarios/scenario1.txt", "scenarios/scenario2.txt", "scenarios/scenario3.txt",
+            "scenarios/scenario4.txt", "scenarios/scenario5.txt", "scenarios/scenario6.txt",
+            "scenarios/scenario7.txt", "scenarios/scenario8.txt", "scenarios/scenario9.txt"})
+    public String scenario;
+
+    /** True to simulate the scenario, with no delays at all, rather than run it in real time. */
+    @Param({"true"})
+    public boolean virtualTime;
+
+    /** How many times as slow as real time to run, when not simulating. */
+    @Param({"0.01"})
+    public double timeScale;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        workload = Workload.create("ScenarioWorkload", scenario, virtualTime, timeScale);
+    }
+
+    @Setup(Level.Invocation)
+    public void loadMachine() {
+        workload.setUp();
+    }
+
+    @Benchmark
+    public void sort(Blackhole blackhole) throws InterruptedException {
+        workload.run(blackhole);
+    }
+}
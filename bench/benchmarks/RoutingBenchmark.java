@@ -0,0 +1,51 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the per-present routing lookup a Turntable makes in `run`, for each routing policy.
+ * Every Turntable of a scenario is asked to route a present to every Sack it can reach from each of its inputs,
+ * in turn, one lookup per invocation, so lookups which need the policy to choose between ports are measured
+ * alongside those which do not.
+ * @author Jacob
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+    /** The configuration file of the machine to route through, relative to the working directory. */
+    @Param({"bench/scenarios/redundant.txt"})
+    public String scenario;
+
+    /** The name of the policy choosing between ports leading to the same sack. */
+    @Param({"first-fit", "least-loaded", "power-of-two"})
+    public String policy;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        workload = Workload.create("RoutingWorkload", scenario, policy);
+    }
+
+    @Benchmark
+    public void lookup(Blackhole blackhole) throws InterruptedException {
+        workload.run(blackhole);
+    }
+}
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of `Sack.putPresent` while Elves empty the Sacks as they fill up, the contention a Turntable
+ * putting presents into a Sack has with the Elves.
+ * Elves empty Sacks instantly, so only the handover between the Sacks, the queue of full Sacks and the
+ * Elves is measured.
+ * @author Jacob
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SackBenchmark {
+    /** The number of presents put into the Sacks in each invocation. */
+    static final int PRESENTS = 100_000;
+
+    /** The number of threads putting presents into the Sacks, as Turntables would. */
+    @Param({"1", "4"})
+    public int producers;
+
+    /** The number of Elves emptying the Sacks, which run for the whole trial. */
+    @Param({"1", "2"})
+    public int elves;
+
+    /** The number of Sacks, the producers take turns between them. */
+    @Param({"1", "4"})
+    public int sacks;
+
+    @Param({"20"})
+    public int capacity;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        workload = Workload.create("SackWorkload", producers, elves, sacks, capacity, PRESENTS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PRESENTS)
+    public void fill(Blackhole blackhole) throws InterruptedException {
+        workload.run(blackhole);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        workload.tearDown();
+    }
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * The work a benchmark times on the machine.
+ * The machine's classes are in the default package, which JMH cannot generate benchmarks for and no named package
+ * can refer to, so each benchmark's state makes its Workload by name, and the Workload (in the default package)
+ * works on the machine.
+ * @author Jacob
+ */
+public interface Workload {
+    /**
+     * Prepare the next invocation, untimed when the benchmark calls it from a `Level.Invocation` setup.
+     */
+    default void setUp() {
+    }
+
+    /**
+     * Run one invocation of the benchmark.
+     * @param blackhole Consumes whatever the invocation produces, so none of it can be optimised away.
+     */
+    void run(Blackhole blackhole) throws InterruptedException;
+
+    /**
+     * Release anything the invocations left running.
+     */
+    default void tearDown() throws InterruptedException {
+    }
+
+    /**
+     * Make a Workload of a class in the default package.
+     * @param className The name of the Workload's class.
+     * @param args The arguments of its public constructor, boxed.
+     * @return The Workload.
+     * @throws ReflectiveOperationException If the class or a constructor taking as many arguments does not exist,
+     * or the constructor throws.
+     */
+    static Workload create(String className, Object... args) throws ReflectiveOperationException {
+        for (Constructor<?> constructor : Class.forName(className).getConstructors()) {
+            if (constructor.getParameterCount() == args.length) {
+                return (Workload) constructor.newInstance(args);
+            }
+        }
+        throw new NoSuchMethodException(className + " has no constructor taking " + args.length + " arguments.");
+    }
+}
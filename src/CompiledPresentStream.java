@@ -0,0 +1,41 @@
+import net.jcip.annotations.NotThreadSafe;
+
+import java.nio.IntBuffer;
+
+/**
+ * Reads the presents of a single Hopper from its section of a compiled scenario.
+ * The section is a view of the memory-mapped file, so pages are only read in as the Hopper reaches them.
+ * @author Jacob
+ * @see PresentStream
+ * @see ScenarioCompiler
+ */
+@NotThreadSafe
+class CompiledPresentStream implements PresentStream {
+    /** The index of the Sack each present is destined for, positioned at the next present. */
+    private final IntBuffer sackIndices;
+    private final PresentStore store;
+
+    /**
+     * @param sackIndices The index of the Sack each present is destined for, from the current position on.
+     * @param store The store to add the presents to.
+     */
+    CompiledPresentStream(IntBuffer sackIndices, PresentStore store) {
+        this.sackIndices = sackIndices;
+        this.store = store;
+    }
+
+    @Override
+    public void read(PresentSlots slots, int firstSlot, int presents) {
+        if (presents > sackIndices.remaining()) {
+            throw new IllegalStateException("Only " + sackIndices.remaining() + " presents of the section are left.");
+        }
+
+        int slot = firstSlot;
+        for (int i = 0; i < presents; ++i) {
+            slots.setHandle(slot, store.newHandle(sackIndices.get()));
+            if (++slot == slots.capacity()) {
+                slot = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import java.lang.reflect.Method;
+
+/**
+ * Decides which kind of thread the Hoppers, Turntables and Elves run on.
+ * Every component spends nearly all of its time sleeping or waiting on a belt, so virtual threads let
+ * layouts with tens of thousands of components run without an operating system thread (and stack) each.
+ * Belts, Sacks and the other blocking primitives wait on a ReentrantLock's Condition rather than a monitor,
+ * so a waiting component unmounts from its carrier instead of pinning it.
+ * @see PresentSortingMachine
+ */
+public enum ComponentRuntime {
+    /** One operating system thread per component. */
+    PLATFORM("platform") {
+        @Override
+        Thread newThread(Runnable component, String name) {
+            return new Thread(component, name);
+        }
+    },
+    /** One virtual thread per component, which needs Java 21 or later. */
+    VIRTUAL("virtual") {
+        @Override
+        Thread newThread(Runnable component, String name) {
+            // Looked up at run time, so the machine still builds and runs on Java 11
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Method setName = builder.getClass().getMethod("name", String.class);
+                setName.setAccessible(true);
+                builder = setName.invoke(builder, name);
+
+                Method unstarted = builder.getClass().getMethod("unstarted", Runnable.class);
+                unstarted.setAccessible(true);
+                return (Thread) unstarted.invoke(builder, component);
+            } catch (NoSuchMethodException e) {
+                throw new UnsupportedOperationException("Virtual threads need Java 21 or later.", e);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not create a virtual thread.", e);
+            }
+        }
+    };
+
+    private final String name;
+
+    ComponentRuntime(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Create the thread a component runs on, without starting it.
+     * @param component The Hopper, Turntable or Elf.
+     * @param name The name of the thread.
+     * @return The unstarted thread.
+     */
+    abstract Thread newThread(Runnable component, String name);
+
+    /**
+     * @return The name used to select the runtime on the command line.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Find a runtime by its command-line name.
+     * @param name The name (e.g. virtual).
+     * @return The runtime.
+     */
+    public static ComponentRuntime fromName(String name) {
+        for (ComponentRuntime runtime : values()) {
+            if (runtime.name.equals(name)) {
+                return runtime;
+            }
+        }
+        throw new IllegalArgumentException("Unknown component runtime: " + name);
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Thrown when a configuration file cannot be loaded, giving where in the file the problem was found.
+ * @author Jacob
+ * @see ConfigTokenizer
+ */
+public class ConfigParseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final ErrorCodes errorCode;
+    private final String source;
+    private final int line;
+    private final int column;
+
+    /**
+     * @param errorCode The kind of problem.
+     * @param source The name of the configuration file.
+     * @param line The line of the problem, starting from 1.
+     * @param column The column of the problem, starting from 1.
+     * @param detail What exactly was wrong.
+     */
+    public ConfigParseException(ErrorCodes errorCode, String source, int line, int column, String detail) {
+        super(source + ":" + line + ":" + column + ": " + errorCode.getMsg() + " " + detail);
+        this.errorCode = errorCode;
+        this.source = source;
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * @return The kind of problem.
+     */
+    public ErrorCodes getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * @return The name of the configuration file.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return The line of the problem, starting from 1.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return The column of the problem, starting from 1.
+     */
+    public int getColumn() {
+        return column;
+    }
+}
@@ -0,0 +1,74 @@
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads the presents of a single Hopper from its PRESENTS section of the configuration file.
+ * The file is only open while a window of presents is read, after which the stream remembers the
+ * offset it reached, so any number of Hoppers can stream without holding a file open each.
+ * The section is checked while the configuration is loaded, so every line is known to be valid.
+ * @author Jacob
+ * @see PresentStream
+ */
+@NotThreadSafe
+class ConfigPresentStream implements PresentStream {
+    private final String fileName;
+    /** The number of presents in the section. */
+    private final int count;
+
+    /** Lookup of age range -> index of the Sack collecting it. */
+    private final ConfigTokenizer.Vocabulary ageRanges;
+    private final PresentStore store;
+
+    /** The offset and line number in the file of the next present. */
+    private long offset;
+    private int line;
+    private int read = 0;
+
+    /**
+     * Create a stream over a section of presents.
+     * @param fileName The configuration file.
+     * @param offset The offset in the file of the first present.
+     * @param line The line number of the first present.
+     * @param count The number of presents in the section.
+     * @param ageRanges Lookup of age range -> index of the Sack collecting it.
+     * @param store The store to add the presents to.
+     */
+    ConfigPresentStream(String fileName, long offset, int line, int count, ConfigTokenizer.Vocabulary ageRanges,
+                        PresentStore store) {
+        this.fileName = fileName;
+        this.offset = offset;
+        this.line = line;
+        this.count = count;
+        this.ageRanges = ageRanges;
+        this.store = store;
+    }
+
+    /**
+     * @exception UncheckedIOException When the file can no longer be read.
+     */
+    @Override
+    public void read(PresentSlots slots, int firstSlot, int presents) {
+        if (presents > count - read) {
+            throw new IllegalStateException("Only " + (count - read) + " presents of the section are left.");
+        }
+
+        try (ConfigTokenizer config = ConfigTokenizer.open(fileName, offset, line)) {
+            int slot = firstSlot;
+            for (int i = 0; i < presents; ++i) {
+                slots.setHandle(slot, store.newHandle(config.nextWord(ageRanges, "age range")));
+                config.endLine();
+                if (++slot == slots.capacity()) {
+                    slot = 0;
+                }
+            }
+
+            offset = config.getOffset();
+            line = config.getLine();
+            read += presents;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a configuration file into space-separated tokens, a line at a time.
+ * The file is read in a single pass through a byte buffer, and numbers and keywords are matched
+ * straight from the buffer, so only tokens which are kept (such as Turntable IDs) become Strings.
+ * Every error reports the line and column of the token at fault.
+ * @author Jacob
+ * @see ConfigParseException
+ */
+@NotThreadSafe
+public class ConfigTokenizer implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final String source;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+
+    /** The offset in the file of the start of the buffer. */
+    private long bufferOffset;
+    /** The current line, and the offset in the file at which it starts. */
+    private int line;
+    private long lineStart;
+
+    /** Where the last token read started, for reporting errors. */
+    private int tokenLine;
+    private int tokenColumn;
+
+    /**
+     * Create a tokenizer over a stream.
+     * @param in The stream, positioned at the start of a line.
+     * @param source The name of the file, for reporting errors.
+     * @param offset The offset of the stream's position in the file.
+     * @param line The line number of the stream's position in the file, starting from 1.
+     */
+    public ConfigTokenizer(InputStream in, String source, long offset, int line) {
+        this.in = in;
+        this.source = source;
+        this.bufferOffset = offset;
+        this.lineStart = offset;
+        this.line = line;
+        this.tokenLine = line;
+        this.tokenColumn = 1;
+    }
+
+    /**
+     * Open a file to tokenize from the start of one of its lines.
+     * @param fileName The name of the file.
+     * @param offset The offset in the file of the start of the line.
+     * @param line The line number, starting from 1.
+     * @return A tokenizer positioned at the start of the line.
+     */
+    public static ConfigTokenizer open(String fileName, long offset, int line) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+        channel.position(offset);
+        return new ConfigTokenizer(Channels.newInputStream(channel), fileName, offset, line);
+    }
+
+    /**
+     * Open a file to tokenize from the start.
+     * @param fileName The name of the file.
+     * @return A tokenizer positioned at the start of the file.
+     */
+    public static ConfigTokenizer open(String fileName) throws IOException {
+        return open(fileName, 0, 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * @return The offset in the file of the next byte to be read.
+     */
+    public long getOffset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * @return The current line number, starting from 1.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Skip any blank lines.
+     * @return True if there is another line with a token on it, false at the end of the file.
+     */
+    public boolean skipBlankLines() {
+        while (true) {
+            skipSpaces();
+            int next = peek();
+            if (next < 0) {
+                return false;
+            }
+            if (!isEndOfLine(next)) {
+                return true;
+            }
+            endLine();
+        }
+    }
+
+    /**
+     * @return True if there is another token on the current line.
+     */
+    public boolean hasNext() {
+        skipSpaces();
+        return !isEndOfLine(peek());
+    }
+
+    /**
+     * @return True if the next token on the current line starts like a number.
+     */
+    public boolean hasNextInt() {
+        skipSpaces();
+        int next = peek();
+        return (next >= '0' && next <= '9') || next == '-';
+    }
+
+    /**
+     * Read a token as a String.
+     * @param what What the token is, for reporting errors.
+     * @return The token.
+     */
+    public String next(String what) {
+        int end = startToken(what);
+        String token = new String(buffer, position, end - position, StandardCharsets.UTF_8);
+        position = end;
+        return token;
+    }
+
+    /**
+     * Skip over a token.
+     * @param what What the token is, for reporting errors.
+     */
+    public void skip(String what) {
+        position = startToken(what);
+    }
+
+    /**
+     * Read a token as a whole number.
+     * @param what What the number is, for reporting errors.
+     * @return The number.
+     */
+    public int nextInt(String what) {
+        int end = startToken(what);
+        int i = position;
+        boolean negative = buffer[i] == '-';
+        if (negative) {
+            ++i;
+        }
+
+        long value = 0;
+        if (i == end) {
+            throw error("Expected " + what + " but found '" + token(end) + "'.");
+        }
+        for (; i < end; ++i) {
+            int digit = buffer[i] - '0';
+            value = value * 10 + digit;
+            if (digit < 0 || digit > 9 || value > (long) Integer.MAX_VALUE + 1) {
+                throw error("Expected " + what + " but found '" + token(end) + "'.");
+            }
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw error("Expected " + what + " but found '" + token(end) + "'.");
+        }
+        position = end;
+        return (int) value;
+    }
+
+    /**
+     * Read a number referring to one of a list of items, counted from 1.
+     * @param what What the items are, for reporting errors.
+     * @param count The number of items.
+     * @return The index of the item, counted from 0.
+     */
+    public int nextIndex(String what, int count) {
+        int number = nextInt(what + " number");
+        if (number < 1 || number > count) {
+            throw error(ErrorCodes.ITEM_OUT_OF_RANGE, "There is no " + what + " " + number + " (there are " + count + ").");
+        }
+        return number - 1;
+    }
+
+    /**
+     * Read a token which must be one of a set of words.
+     * @param words The words allowed.
+     * @param what What the token is, for reporting errors.
+     * @return The index of the word read.
+     */
+    public int nextWord(Vocabulary words, String what) {
+        return nextWord(words, what, ErrorCodes.PARSE_ERROR);
+    }
+
+    /**
+     * Read a token which must be one of a set of words.
+     * @param words The words allowed.
+     * @param what What the token is, for reporting errors.
+     * @param errorCode The kind of problem to report if the token is not one of the words.
+     * @return The index of the word read.
+     */
+    public int nextWord(Vocabulary words, String what, ErrorCodes errorCode) {
+        int end = startToken(what);
+        int index = words.indexOf(buffer, position, end);
+        if (index < 0) {
+            throw error(errorCode, "Expected " + what + " (" + words + ") but found '" + token(end) + "'.");
+        }
+        position = end;
+        return index;
+    }
+
+    /**
+     * Read a token which must be a given keyword.
+     * @param keyword The keyword.
+     */
+    public void expect(String keyword) {
+        int end = startToken("'" + keyword + "'");
+        boolean matches = end - position == keyword.length();
+        for (int i = 0; matches && i < keyword.length(); ++i) {
+            matches = buffer[position + i] == keyword.charAt(i);
+        }
+
+        if (!matches) {
+            throw error("Expected '" + keyword + "' but found '" + token(end) + "'.");
+        }
+        position = end;
+    }
+
+    /**
+     * Finish the current line, which must have no more tokens on it.
+     */
+    public void endLine() {
+        skipSpaces();
+        int next = peek();
+        if (next == '\r') {
+            ++position;
+            next = peek();
+        }
+
+        if (next == '\n') {
+            ++position;
+            ++line;
+            lineStart = getOffset();
+        } else if (next >= 0) {
+            markToken();
+            throw error("Unexpected '" + token(tokenEnd()) + "' at the end of the line.");
+        }
+    }
+
+    /**
+     * Create an error at the last token read.
+     * @param errorCode The kind of problem.
+     * @param detail What exactly was wrong.
+     * @return The exception, to be thrown.
+     */
+    public ConfigParseException error(ErrorCodes errorCode, String detail) {
+        return new ConfigParseException(errorCode, source, tokenLine, tokenColumn, detail);
+    }
+
+    private ConfigParseException error(String detail) {
+        return error(ErrorCodes.PARSE_ERROR, detail);
+    }
+
+    /**
+     * Move to the next token, making sure all of it is in the buffer.
+     * @param what What the token is, for reporting errors.
+     * @return The index in the buffer of the end of the token.
+     */
+    private int startToken(String what) {
+        skipSpaces();
+        markToken();
+        if (isEndOfLine(peek())) {
+            throw error("Expected " + what + " but the line ended.");
+        }
+        return tokenEnd();
+    }
+
+    private void markToken() {
+        tokenLine = line;
+        tokenColumn = (int) (getOffset() - lineStart) + 1;
+    }
+
+    /**
+     * Find the end of the token at the current position, reading more of the file if needed.
+     * @return The index in the buffer of the end of the token.
+     */
+    private int tokenEnd() {
+        int end = position;
+        while (true) {
+            while (end < limit && !isDelimiter(buffer[end])) {
+                ++end;
+            }
+            if (end < limit || endOfInput) {
+                return end;
+            }
+
+            // The token runs past the end of the buffer, move it to the front and read more
+            end -= position;
+            compact();
+            if (limit == buffer.length) {
+                throw error("A token is longer than " + BUFFER_SIZE + " bytes.");
+            }
+            read();
+        }
+    }
+
+    private String token(int end) {
+        return new String(buffer, position, end - position, StandardCharsets.UTF_8);
+    }
+
+    private void skipSpaces() {
+        int next = peek();
+        while (next == ' ' || next == '\t') {
+            ++position;
+            next = peek();
+        }
+    }
+
+    /**
+     * @return The next byte, or -1 at the end of the file.
+     */
+    private int peek() {
+        if (position == limit) {
+            compact();
+            read();
+        }
+        return (position < limit) ? buffer[position] & 0xFF : -1;
+    }
+
+    private void compact() {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        bufferOffset += position;
+        limit -= position;
+        position = 0;
+    }
+
+    private void read() {
+        if (endOfInput) {
+            return;
+        }
+
+        try {
+            int count = in.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                endOfInput = true;
+            } else {
+                limit += count;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean isEndOfLine(int b) {
+        return b == '\r' || b == '\n' || b < 0;
+    }
+
+    /**
+     * A fixed set of words which tokens can be matched against without creating Strings.
+     */
+    public static class Vocabulary {
+        private final byte[][] words;
+        /** Open-addressing hash table of index + 1 into words, 0 if empty. */
+        private final int[] table;
+
+        /**
+         * @param words The words, a word listed twice is matched to its last index.
+         */
+        public Vocabulary(List<String> words) {
+            this.words = new byte[words.size()][];
+            table = new int[Integer.highestOneBit(Math.max(1, words.size()) * 2) * 2];
+
+            for (int i = 0; i < words.size(); ++i) {
+                this.words[i] = words.get(i).getBytes(StandardCharsets.UTF_8);
+                int slot = find(this.words[i], 0, this.words[i].length);
+                table[slot] = i + 1;
+            }
+        }
+
+        public Vocabulary(String... words) {
+            this(Arrays.asList(words));
+        }
+
+        /**
+         * @param bytes A buffer holding a token.
+         * @param from The start of the token.
+         * @param to The end of the token.
+         * @return The index of the word, or -1 if it is not one of the words.
+         */
+        public int indexOf(byte[] bytes, int from, int to) {
+            return table[find(bytes, from, to)] - 1;
+        }
+
+        /**
+         * @return The slot holding the word, or the empty slot it belongs in.
+         */
+        private int find(byte[] bytes, int from, int to) {
+            int hash = 0x811c9dc5;
+            for (int i = from; i < to; ++i) {
+                hash = (hash ^ bytes[i]) * 0x01000193;
+            }
+
+            int mask = table.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (table[slot] != 0 && !Arrays.equals(words[table[slot] - 1], 0, words[table[slot] - 1].length,
+                    bytes, from, to)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < words.length && i < 8; ++i) {
+                list.append((i == 0) ? "" : ", ").append(new String(words[i], StandardCharsets.UTF_8));
+            }
+            return (words.length > 8) ? list + ", ..." : list.toString();
+        }
+    }
+}
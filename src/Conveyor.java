@@ -2,29 +2,53 @@ import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
 import java.util.HashSet;
-import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Represents a circular buffer queue of presents (self eating snake)
+ * The queue is guarded by a ReentrantLock rather than the Conveyor's monitor, so a component waiting on it
+ * parks without pinning a virtual thread to its carrier.
  * @author Nick
  * @author Jacob
  */
 @ThreadSafe
-public class Conveyor
+public class Conveyor implements ConveyorMXBean
 {
     private final int id;
-    private final Present[] presents; // The requirements say this must be a fixed size array
+    protected final PresentSlots presents; // The requirements say this must be a fixed size array
     private final HashSet<Integer> destinations;
 
 
-    @GuardedBy("this")
+    @GuardedBy("lock")
     private int head;
-    @GuardedBy("this")
+    @GuardedBy("lock")
     private int tail;
-    @GuardedBy("this")
-    private int count;
+    /** Volatile so a snapshot can read it without the lock, after its Mark has been updated. */
+    @GuardedBy("lock")
+    private volatile int count;
+
+    /** What count was when the latest snapshot of the machine began. */
+    @GuardedBy("lock")
+    private final SnapshotGate.Mark countMark = new SnapshotGate.Mark();
+
+    /** The number of presents ever put on the Conveyor. */
+    @GuardedBy("lock")
+    private long presentsCarried = 0;
+
+    /** Guards the queue. */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled when a Present is taken, for producers waiting for space. */
+    private final Condition notFull = lock.newCondition();
+    /** Signalled when a Present is put, for consumers waiting for one. */
+    private final Condition notEmpty = lock.newCondition();
+
+    /** Raised whenever a Present is put on the Conveyor, to wake its consumer. */
+    private volatile ReadinessSignal consumerSignal = null;
 
     private static final Logger LOGGER = Logger.getLogger(Conveyor.class.getName());
 
@@ -41,9 +65,19 @@ public class Conveyor
      * @param size Maximum capacity of the queue.
      */
     public Conveyor(int id, int size)
+    {
+        this(id, PresentSlots.ofObjects(size));
+    }
+
+    /**
+     * Constructs a Conveyor instance from an ID and the slots to hold presents in.
+     * @param id ID of the Conveyor.
+     * @param slots The slots of the queue, their number is its maximum capacity.
+     */
+    public Conveyor(int id, PresentSlots slots)
     {
         this.id = id;
-        presents = new Present[size];
+        presents = slots;
         destinations = new HashSet<>();
         tail = 0;
         head = 0;
@@ -63,10 +97,53 @@ public class Conveyor
         destinations.add(hopperID);
     }
 
+    /**
+     * Set the signal to raise whenever a Present is put on the Conveyor.
+     * @param signal The signal of the consuming Turntable.
+     */
+    public void setConsumerSignal(ReadinessSignal signal) {
+        consumerSignal = signal;
+    }
+
     /**
      * @return Current amount of items inside Conveyor.
      */
-    synchronized public int getCount() { return count; }
+    public int getCount() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param epoch The epoch of a snapshot of the machine.
+     * @return The amount of items inside the Conveyor when the snapshot began.
+     */
+    int countAt(long epoch) {
+        return (int) countMark.at(count, epoch);
+    }
+
+    /**
+     * @return The number of presents ever put on the Conveyor.
+     */
+    @Override
+    public long getPresentsCarried() {
+        lock.lock();
+        try {
+            return presentsCarried;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Maximum amount of items the Conveyor can hold.
+     */
+    public int getCapacity() {
+        return presents.capacity();
+    }
 
     /**
      * The destinations of the Conveyor.
@@ -81,154 +158,384 @@ public class Conveyor
      * Check if conveyor is empty.
      * @return True if the conveyor has no more presents.
      */
-    synchronized public boolean isEmpty() {
-        return count == 0;
+    public boolean isEmpty() {
+        return getCount() == 0;
     }
 
     /**
      * Check if conveyor is full and cannot accept any more presents.
      * @return True if the conveyor is full.
      */
-    synchronized public boolean isFull() {
-        return count >= presents.length;
+    public boolean isFull() {
+        return getCount() >= presents.capacity();
     }
 
     /**
      * Attempt to put a Present in the Conveyor queue.
-     * The operation will call `wait()` until there is enough space in the queue.
-     * Then, `notifyAll()` will be called once the element was deposited.
-     * @param timeout The number of milliseconds to wait before giving up.
+     * The operation will wait until there is enough space in the queue.
+     * Then, everything waiting on the Conveyor will be woken once the element was deposited.
+     * @param timeout The number of milliseconds to wait before checking again.
      * @param present The Present to place in the queue.
      */
-    synchronized public void putPresent(Present present, int timeout) throws InterruptedException {
-        // Wait until there is space in the Conveyor
-        while (isFull()) {
-            wait(timeout);
+    public void putPresent(Present present, int timeout) throws InterruptedException {
+        lock.lock();
+        try {
+            // Wait until there is space in the Conveyor
+            while (count >= presents.capacity()) {
+                if (timeout > 0) {
+                    notFull.await(timeout, TimeUnit.MILLISECONDS);
+                } else {
+                    notFull.await();
+                }
+            }
+
+            // At this point the lock was acquired and there is space in the Conveyor
+            // Perform put operation
+            put(present);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // At this point the lock was acquired and there is space in the Conveyor
-        // Perform put operation
-        put(present);
+    /**
+     * Attempt to put a Present in the Conveyor queue.
+     * The operation will wait until there is enough space in the queue.
+     * Then, everything waiting on the Conveyor will be woken once the element was deposited.
+     * @param present The Present to place in the queue.
+     */
+    public void putPresent(Present present) throws InterruptedException {
+        putPresent(present, 0);
+    }
 
-        // Notify that put operation has finished
-        notifyAll();
+    /**
+     * Wait until there is space on the Conveyor, without putting anything on it.
+     * Lets a producer wait outside of its Turnstile, then offer the Present within it.
+     */
+    public void awaitSpace() throws InterruptedException {
+        lock.lock();
+        try {
+            while (count >= presents.capacity()) {
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * Attempt to put a Present in the Conveyor queue.
-     * The operation will call `wait()` until there is enough space in the queue.
-     * Then, `notifyAll()` will be called once the element was deposited.
+     * Attempt to put a Present in the Conveyor queue without waiting.
+     * Everything waiting on the Conveyor will be woken if the element was deposited.
      * @param present The Present to place in the queue.
+     * @return True if there was space and the Present was deposited.
      */
-    synchronized public void putPresent(Present present) throws InterruptedException {
-        // Wait until there is space in the Conveyor
-        while (isFull()) {
-            wait();
+    public boolean offerPresent(Present present) {
+        lock.lock();
+        try {
+            if (count >= presents.capacity()) {
+                return false;
+            }
+
+            put(present);
+            return true;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // At this point the lock was acquired and there is space in the Conveyor
-        // Perform put operation
-        put(present);
+    /**
+     * Attempt to put a present in the Conveyor queue by its handle without waiting.
+     * Everything waiting on the Conveyor will be woken if the element was deposited.
+     * @param handle The handle of the present to place in the queue.
+     * @return True if there was space and the present was deposited.
+     */
+    public boolean offerHandle(int handle) {
+        return offerHandle(handle, SnapshotGate.NO_EPOCH);
+    }
 
-        // Notify that put operation has finished
-        notifyAll();
+    /**
+     * Attempt to put a present in the Conveyor queue by its handle without waiting.
+     * Everything waiting on the Conveyor will be woken if the element was deposited.
+     * @param handle The handle of the present to place in the queue.
+     * @param epoch The epoch of the transfer placing it.
+     * @return True if there was space and the present was deposited.
+     */
+    public boolean offerHandle(int handle, long epoch) {
+        lock.lock();
+        try {
+            if (count >= presents.capacity()) {
+                return false;
+            }
+
+            presents.setHandle(tail, handle);
+            appended(epoch);
+            notEmpty.signalAll();
+            raiseConsumerSignal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Attempt to put several presents in the Conveyor queue by their handles without waiting, all under a single lock.
+     * Everything waiting on the Conveyor will be woken once if any were deposited, and the consumer is woken once.
+     * @param batch The handles of the presents to place in the queue, in order.
+     * @param offset The index of the first handle in the batch.
+     * @param length The number of presents to place.
+     * @return The number of presents deposited from the start, as many as there was space for.
+     */
+    public int putAll(int[] batch, int offset, int length) {
+        return putAll(batch, offset, length, SnapshotGate.NO_EPOCH);
     }
 
     /**
-     * Puts a present in the Conveyor.
-     * Not to be used directly.
+     * Attempt to put several presents in the Conveyor queue by their handles without waiting, all under a single lock.
+     * Everything waiting on the Conveyor will be woken once if any were deposited, and the consumer is woken once.
+     * @param batch The handles of the presents to place in the queue, in order.
+     * @param offset The index of the first handle in the batch.
+     * @param length The number of presents to place.
+     * @param epoch The epoch of the transfer placing them.
+     * @return The number of presents deposited from the start, as many as there was space for.
+     */
+    public int putAll(int[] batch, int offset, int length, long epoch) {
+        lock.lock();
+        try {
+            int placed = Math.min(length, presents.capacity() - count);
+            if (placed <= 0) {
+                return 0;
+            }
+
+            for (int i = 0; i < placed; ++i) {
+                presents.setHandle(tail, batch[offset + i]);
+                appended(epoch);
+            }
+            notEmpty.signalAll();
+            raiseConsumerSignal();
+            return placed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a present in the Conveyor, and wakes its consumer.
+     * Not to be used directly, the lock must be held.
      * @param present The Present to insert.
      */
-    synchronized private void put(Present present) {
-        LOGGER.log(Level.INFO, String.format("Putting a present (%s) in belt %s.", present, id));
-        // Append item and increase count
-        presents[tail] = present;
+    private void put(Present present) {
+        append(present);
+        notEmpty.signalAll();
+        raiseConsumerSignal();
+    }
+
+    /**
+     * Puts a present in the Conveyor without waking its consumer.
+     * Not to be used directly, the lock must be held.
+     * @param present The Present to insert.
+     */
+    private void append(Present present) {
+        presents.set(tail, present);
+        appended(SnapshotGate.NO_EPOCH);
+    }
+
+    /**
+     * Adds the present just placed in the slot at the tail to the queue.
+     * Not to be used directly, the lock must be held.
+     * @param epoch The epoch of the transfer placing it.
+     */
+    private void appended(long epoch) {
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, String.format("Putting a present (%s) in belt %s.", presents.get(tail), id));
+        }
+        TraceRecorder.record(TraceEvent.BELT_PUT, id, presents.getId(tail));
 
         // Wrap around (increase before comparing)
-        if (++tail == presents.length) {
+        if (++tail == presents.capacity()) {
             tail = 0;
         }
+        countMark.add(count, 1, epoch);
         ++count;
+        ++presentsCarried;
+    }
+
+    /**
+     * Wake the consumer of the Conveyor after a Present was put on it.
+     */
+    protected void raiseConsumerSignal() {
+        ReadinessSignal signal = consumerSignal;
+        if (signal != null) {
+            signal.raise();
+        }
     }
 
     /**
      * Takes a present from the queue.
-     * The operation will call `wait()` until there is a Present to take.
-     * Then, `notifyAll()` will be called once operation is completed.
-     * @param timeout The number of milliseconds to wait before giving up.
+     * The operation will wait until there is a Present to take.
+     * Then, everything waiting on the Conveyor will be woken once operation is completed.
+     * @param timeout The number of milliseconds to wait before checking again.
      * @return Present at front of queue.
      */
-    synchronized public Present takePresent(int timeout) throws InterruptedException {
-        // Wait until the Conveyor contains elements, then re-acquire lock
-        while (isEmpty()) {
-            wait(timeout);
+    public Present takePresent(int timeout) throws InterruptedException {
+        lock.lock();
+        try {
+            // Wait until the Conveyor contains elements, then re-acquire lock
+            while (count == 0) {
+                if (timeout > 0) {
+                    notEmpty.await(timeout, TimeUnit.MILLISECONDS);
+                } else {
+                    notEmpty.await();
+                }
+            }
+            Present present = take();
+            // Notify there is space in the Conveyor
+            notFull.signalAll();
+            return present;
+        } finally {
+            lock.unlock();
         }
-        Present present = take();
-        // Notify there is an element in the Conveyor
-        notifyAll();
-        return present;
     }
 
     /**
      * Takes a present from the queue.
-     * The operation will call `wait()` until there is a Present to take.
-     * Then, `notifyAll()` will be called once operation is completed.
+     * The operation will wait until there is a Present to take.
+     * Then, everything waiting on the Conveyor will be woken once operation is completed.
      * @return Present at front of queue.
      */
-    synchronized public Present takePresent() throws InterruptedException {
-        // Wait until the Conveyor contains elements, then re-acquire lock
-        while (isEmpty()) {
-            wait();
+    public Present takePresent() throws InterruptedException {
+        return takePresent(0);
+    }
+
+    /**
+     * Takes a present from the queue without waiting.
+     * Everything waiting on the Conveyor will be woken if a Present was taken.
+     * @return Present at front of queue, or null if the Conveyor is empty.
+     */
+    public Present pollPresent() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+
+            Present present = take();
+            notFull.signalAll();
+            return present;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes up to a number of presents from the queue by their handles without waiting, all under a single lock.
+     * Everything waiting on the Conveyor will be woken once if any were taken.
+     * @param batch Where to place the handles of the presents, in order from the front of the queue.
+     * @param max The most presents to take.
+     * @return The number of presents taken, 0 if the Conveyor is empty.
+     */
+    public int drainTo(int[] batch, int max) {
+        return drainTo(batch, max, SnapshotGate.NO_EPOCH);
+    }
+
+    /**
+     * Takes up to a number of presents from the queue by their handles without waiting, all under a single lock.
+     * Everything waiting on the Conveyor will be woken once if any were taken.
+     * @param batch Where to place the handles of the presents, in order from the front of the queue.
+     * @param max The most presents to take.
+     * @param epoch The epoch of the transfer taking them.
+     * @return The number of presents taken, 0 if the Conveyor is empty.
+     */
+    public int drainTo(int[] batch, int max, long epoch) {
+        lock.lock();
+        try {
+            int taken = Math.min(max, count);
+            if (taken <= 0) {
+                return 0;
+            }
+
+            for (int i = 0; i < taken; ++i) {
+                batch[i] = presents.getHandle(head);
+                removed(epoch);
+            }
+            notFull.signalAll();
+            return taken;
+        } finally {
+            lock.unlock();
         }
-        Present present = take();
-        // Notify there is an element in the Conveyor
-        notifyAll();
-        return present;
     }
 
     /**
      * Takes a present out of the Conveyor.
-     * Should not be used directly, as it does not check count first.
+     * Should not be used directly, as it does not check count first, and the lock must be held.
      * @return The Present just taken.
      */
-    synchronized private Present take() {
+    private Present take() {
         // Take element from circular buffer
-        Present present = presents[head];
-        LOGGER.log(Level.INFO, String.format("Taking a present (%s) from belt %s.", present, id));
+        Present present = presents.get(head);
+        removed(SnapshotGate.NO_EPOCH);
+        return present;
+    }
+
+    /**
+     * Removes the present at the head from the queue, once it has been read.
+     * Not to be used directly, the lock must be held.
+     * @param epoch The epoch of the transfer taking it.
+     */
+    private void removed(long epoch) {
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, String.format("Taking a present (%s) from belt %s.", presents.get(head), id));
+        }
+        TraceRecorder.record(TraceEvent.BELT_TAKE, id, presents.getId(head));
 
         // Don't think strictly necessary
-        presents[head] = null;
+        presents.clear(head);
 
         // Wrap around (increase before comparing)
-        if (++head == presents.length) {
+        if (++head == presents.capacity()) {
             head = 0;
         }
+        countMark.add(count, -1, epoch);
         --count;
-
-        return present;
     }
 
+    /** The words which may follow `queue` at the end of a line. */
+    private static final ConfigTokenizer.Vocabulary QUEUES = new ConfigTokenizer.Vocabulary("monitor", "spsc");
+
     /**
-     * A factory function that parses a string and constructs a Conveyor object with its destinations.
-     * @param line The string to parse (e.g. 1 length 5 destinations 1 2).
+     * A factory function that parses a line and constructs a Conveyor object with its destinations.
+     * The line may end with `queue spsc` to use the lock-free single-producer/single-consumer variant.
+     * @param config The configuration, at a line to parse (e.g. 1 length 5 destinations 1 2).
+     * @param slots Creates the slots to hold presents in, given their number.
      * @return A newly constructed Conveyor.
+     * @see SpscConveyor
      */
-    public static Conveyor parseString(String line) {
-        Scanner beltStream = new Scanner(line);
-        int id = beltStream.nextInt();
-        beltStream.next(); // skip "length"
+    public static Conveyor parse(ConfigTokenizer config, IntFunction<PresentSlots> slots) {
+        int id = config.nextInt("belt ID");
+        config.expect("length");
 
-        int length = beltStream.nextInt();
-        Conveyor conveyor = new Conveyor(id, length);
-        beltStream.next(); // skip "destinations"
+        int length = config.nextInt("belt length");
+        config.expect("destinations");
 
-        while (beltStream.hasNextInt())
+        HashSet<Integer> destinations = new HashSet<>();
+        while (config.hasNextInt())
         {
-            int dest = beltStream.nextInt();
+            destinations.add(config.nextInt("destination"));
+        }
+
+        boolean lockFree = false;
+        if (config.hasNext()) {
+            config.expect("queue");
+            lockFree = config.nextWord(QUEUES, "queue type") == 1;
+        }
+
+        Conveyor conveyor = lockFree ? new SpscConveyor(id, slots.apply(length))
+                : new Conveyor(id, slots.apply(length));
+        for (int dest : destinations) {
             conveyor.addDestination(dest);
         }
 
-        LOGGER.log(Level.INFO, "Set up Conveyor " + id);
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Set up Conveyor " + id);
+        }
         return conveyor;
     }
 }
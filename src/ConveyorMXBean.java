@@ -0,0 +1,26 @@
+/**
+ * The live state of a Conveyor, as published over JMX while the machine runs.
+ * @author Jacob
+ * @see MachineMBeans
+ */
+public interface ConveyorMXBean {
+    /**
+     * @return ID of Conveyor.
+     */
+    int getConveyorId();
+
+    /**
+     * @return Current amount of items inside Conveyor.
+     */
+    int getCount();
+
+    /**
+     * @return Maximum amount of items the Conveyor can hold.
+     */
+    int getCapacity();
+
+    /**
+     * @return The number of presents ever put on the Conveyor.
+     */
+    long getPresentsCarried();
+}
@@ -0,0 +1,506 @@
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a Present Sorting Machine in virtual time.
+ * Instead of sleeping, every hopper deposit, belt transfer, turntable move/rotation and sack emptying is
+ * scheduled as a timestamped event, and the clock jumps straight to the next event in the queue.
+ * The components are driven through their non-blocking operations, so the machine can be reported
+ * on exactly as after a real-time run.
+ * @author Jacob
+ */
+@NotThreadSafe
+public class DiscreteEventSimulation {
+    private final Hopper[] hoppers;
+    private final Sack[] sacks;
+    private final Turntable[] tables;
+    private final Elf[] elves;
+
+    private final int timerLength;
+    private final int totalPresents;
+    private final int reportInterval;
+    private final int shutdownInterval;
+    private final boolean elvesFromStart;
+    private final boolean endWhenEmpty;
+
+    /** Pending events, ordered by virtual time. */
+    private final PriorityQueue<SimulationEvent> events = new PriorityQueue<>();
+
+    /** The virtual clock, in milliseconds since the machine started. */
+    private long now = 0;
+    private long sequence = 0;
+
+    /** Number of hopper deposits, turntable transfers and wake-ups currently scheduled. */
+    private int transfersInFlight = 0;
+
+    /** Producers waiting for space to become available on a belt. */
+    private final Map<Conveyor, Deque<Runnable>> beltWaiters = new HashMap<>();
+    /** Turntables waiting for a sack to be emptied. */
+    private final Map<Sack, Deque<Runnable>> sackWaiters = new HashMap<>();
+    /** The turntable taking presents from each belt. */
+    private final Map<Conveyor, TableState> consumers = new HashMap<>();
+
+    /** Marks a delivery which has not been held up by a full Sack. */
+    private static final long NOT_BLOCKED = -1;
+
+    private boolean inputStopped = false;
+    private boolean finished = false;
+
+    /** Full sacks announce themselves here, as they do when running in real time. */
+    private final Queue<Sack> fullSacks;
+    /** The counts of the machine being simulated. */
+    private final MachineMetrics metrics;
+    /** The store of the machine, which the handles of the presents moved across Turntables refer to. */
+    private final PresentStore store;
+    /** Elves with no sack to empty. */
+    private final Deque<Elf> idleElves = new ArrayDeque<>();
+    private boolean elvesReleased = false;
+
+    private static final Logger LOGGER = Logger.getLogger(DiscreteEventSimulation.class.getName());
+
+    synchronized static public void setLoggerLevel(Level level) {
+        LOGGER.setLevel(level);
+    }
+
+    /**
+     * Simulation state of a single Turntable.
+     */
+    private static class TableState {
+        final Turntable table;
+        /** Port the next scan for presents starts from. */
+        int nextPort = 0;
+        /** True when every input was empty on the last scan. */
+        boolean idle = false;
+        /** The handles of presents taken off an input belt together, and the next of them to move across. */
+        final int[] intake;
+        int intakeCount = 0;
+        int intakeNext = 0;
+        /** The port the presents in the intake came in from. */
+        int intakePort = 0;
+        /** Presents moving across the Turntable, or waiting to leave it. */
+        int occupied = 0;
+        /** True while a present is moving in (and turning) on a pipelined Turntable. */
+        boolean movingIn = false;
+        /** For each output port of a pipelined Turntable, the presents waiting to move out through it. */
+        final ArrayDeque<Integer>[] departures;
+        /** For each output port of a pipelined Turntable, true while a present is moving out through it. */
+        final boolean[] departing = new boolean[4];
+
+        @SuppressWarnings("unchecked")
+        TableState(Turntable table) {
+            this.table = table;
+            intake = new int[table.getIntakeBatch()];
+            departures = (ArrayDeque<Integer>[]) new ArrayDeque<?>[4];
+            for (int port = 0; port < 4; ++port) {
+                departures[port] = new ArrayDeque<>();
+            }
+        }
+
+        boolean isPipelined() {
+            return table.getSlots() > 1;
+        }
+    }
+
+    /**
+     * Create a simulation over an already configured set of components.
+     * @param hoppers The Hoppers of the machine.
+     * @param sacks The Sacks of the machine.
+     * @param tables The Turntables of the machine.
+     * @param elves The Elves of the machine.
+     * @param fullSacks The queue the Sacks are placed on once full.
+     * @param metrics The counts of the machine.
+     * @param store The store of the machine's presents.
+     * @param timerLength The number of seconds input runs for.
+     * @param totalPresents The number of presents loaded into the Hoppers.
+     * @param reportInterval Milliseconds between interim reports.
+     * @param shutdownInterval Milliseconds between checks that every present has reached the sacks.
+     * @param elvesFromStart True if the Elves work from the start, rather than once input stops.
+     * @param endWhenEmpty True if input stops as soon as every Hopper is empty, rather than when the timer runs out.
+     */
+    public DiscreteEventSimulation(Hopper[] hoppers, Sack[] sacks, Turntable[] tables, Elf[] elves,
+                                   Queue<Sack> fullSacks, MachineMetrics metrics, PresentStore store, int timerLength,
+                                   int totalPresents, int reportInterval, int shutdownInterval, boolean elvesFromStart,
+                                   boolean endWhenEmpty) {
+        this.hoppers = hoppers;
+        this.sacks = sacks;
+        this.tables = tables;
+        this.elves = elves;
+        this.fullSacks = fullSacks;
+        this.metrics = metrics;
+        this.store = store;
+        this.timerLength = timerLength;
+        this.totalPresents = totalPresents;
+        this.reportInterval = reportInterval;
+        this.shutdownInterval = shutdownInterval;
+        this.elvesFromStart = elvesFromStart;
+        this.endWhenEmpty = endWhenEmpty;
+    }
+
+    /**
+     * Run the machine until every deposited present has reached the sacks.
+     * @return The virtual time (in milliseconds) at which the machine shut down.
+     */
+    public long run() {
+        for (Turntable table : tables) {
+            TableState state = new TableState(table);
+            for (int port = 0; port < 4; ++port) {
+                Connection conn = table.getConnection(port);
+                if (conn != null && conn.connType == ConnectionType.InputBelt) {
+                    consumers.put(conn.belt, state);
+                }
+            }
+            schedule(0, () -> scan(state));
+        }
+
+        for (Hopper hopper : hoppers) {
+            scheduleDeposit(hopper);
+        }
+
+        System.out.println("*** Machine Started at ***");
+
+        if (elvesFromStart) {
+            releaseElves();
+        }
+
+        if (timerLength > 0) {
+            schedule(reportInterval, this::interimReport);
+        } else {
+            schedule(0, this::stopInput);
+        }
+
+        while (!finished && !events.isEmpty()) {
+            SimulationEvent event = events.poll();
+            now = event.time;
+            event.fire();
+        }
+
+        System.out.println("*** Machine completed shutdown after " + now / 1000 + "s. ***");
+        return now;
+    }
+
+    private void schedule(long delay, Runnable action) {
+        events.add(new SimulationEvent(now + delay, sequence++, action));
+    }
+
+    /**
+     * Schedule a deposit, turntable transfer or wake-up, which keeps the machine busy until it happens.
+     */
+    private void scheduleTransfer(long delay, Runnable action) {
+        ++transfersInFlight;
+        schedule(delay, () -> {
+            --transfersInFlight;
+            action.run();
+        });
+    }
+
+    private void interimReport() {
+        if (inputStopped) {
+            // Input stopped early, as the Hoppers ran out
+            return;
+        }
+
+        long time = now / 1000;
+        System.out.println("\nInterim Report @ " + time + "s:");
+        System.out.println(metrics.getPresentsInHoppers() + " presents remaining in hoppers;");
+        System.out.println(metrics.getPresentsCollected() + " presents sorted into sacks.\n");
+
+        if (time < timerLength) {
+            schedule(reportInterval, this::interimReport);
+        } else {
+            stopInput();
+        }
+    }
+
+    private void stopInput() {
+        System.out.println("*** Input Stopped after " + now / 1000 + "s. ***");
+        inputStopped = true;
+
+        if (!elvesReleased) {
+            System.out.println("*** Releasing the Elves to empty the Sacks. ***");
+            releaseElves();
+        }
+
+        checkShutdown();
+    }
+
+    /**
+     * Finish if every present deposited has reached the sacks, or report progress and check again later.
+     * The last present reaching a sack also finishes the simulation, at the moment it arrives.
+     */
+    private void checkShutdown() {
+        int collected = metrics.getPresentsCollected();
+        if (metrics.isDrained()) {
+            finished = true;
+            return;
+        }
+
+        if (isStalled()) {
+            LOGGER.log(Level.WARNING, "Simulation stalled at " + now / 1000 + "s: presents can no longer move.");
+            finished = true;
+            return;
+        }
+
+        System.out.println(collected + " have reached the Sacks out of " + totalPresents);
+        schedule(shutdownInterval, this::checkShutdown);
+    }
+
+    /**
+     * The machine is stalled when nothing is moving or being emptied,
+     * which a real-time run would never recover from.
+     */
+    private boolean isStalled() {
+        return transfersInFlight == 0;
+    }
+
+    private void scheduleDeposit(Hopper hopper) {
+        if (hopper.peekPresent() != null) {
+            scheduleTransfer(1000 / hopper.getSpeed(), () -> deposit(hopper, now));
+        }
+    }
+
+    /**
+     * Attempt to place the next present of a Hopper on its belt.
+     * @param since The time the Hopper started trying to deposit the present.
+     */
+    private void deposit(Hopper hopper, long since) {
+        if (inputStopped) {
+            return;
+        }
+
+        Conveyor belt = hopper.getBelt();
+        Present present = hopper.peekPresent();
+        present.markDeposited(since);
+        present.markArrived(since);
+        if (belt.offerPresent(present)) {
+            hopper.recordDeposit(now - since);
+            presentPlaced(belt);
+            scheduleDeposit(hopper);
+            if (endWhenEmpty && metrics.areHoppersEmpty()) {
+                stopInput();
+            }
+        } else {
+            beltWaiters.computeIfAbsent(belt, b -> new ArrayDeque<>()).add(() -> deposit(hopper, since));
+        }
+    }
+
+    /**
+     * Move the next present in the intake of a Turntable across, or look over its inputs, starting after the
+     * last one served, and take as many presents as its intake holds.
+     */
+    private void scan(TableState state) {
+        Turntable table = state.table;
+        if (state.movingIn || state.occupied >= table.getSlots()) {
+            // Scanned again once the present has moved in, or one has left
+            return;
+        }
+        if (state.intakeNext < state.intakeCount) {
+            transfer(state);
+            return;
+        }
+
+        for (int i = 0; i < 4; ++i) {
+            int port = (state.nextPort + i) % 4;
+            Connection conn = table.getConnection(port);
+
+            if (conn != null && conn.connType == ConnectionType.InputBelt) {
+                int taken = conn.belt.drainTo(state.intake, state.intake.length);
+
+                if (taken > 0) {
+                    state.idle = false;
+                    table.presentsTaken(taken);
+                    for (int j = 0; j < taken; ++j) {
+                        table.recordTaken(state.intake[j], now);
+                    }
+                    spaceFreed(conn.belt);
+
+                    state.intakeCount = taken;
+                    state.intakeNext = 0;
+                    state.intakePort = port;
+                    state.nextPort = (port + 1) % 4;
+                    transfer(state);
+                    return;
+                }
+            }
+        }
+
+        state.idle = true;
+    }
+
+    /**
+     * Start moving the next present in the intake of a Turntable across.
+     * A pipelined Turntable can take the next present once this one has moved in and turned, and the
+     * present then waits to move out through its output port after any others bound for it.
+     */
+    private void transfer(TableState state) {
+        int handle = state.intake[state.intakeNext++];
+        int port = state.intakePort;
+
+        int outputPort = state.table.outputPortFor(port, store.getSackIndex(handle));
+        ++state.occupied;
+        if (!state.isPipelined()) {
+            scheduleTransfer(Turntable.transferTime(port, outputPort),
+                    () -> deliver(state, handle, outputPort, NOT_BLOCKED));
+            return;
+        }
+
+        state.movingIn = true;
+        scheduleTransfer(Turntable.moveInTime(port, outputPort), () -> {
+            state.movingIn = false;
+            state.departures[outputPort].add(handle);
+            if (!state.departing[outputPort]) {
+                depart(state, outputPort);
+            }
+            scan(state);
+        });
+    }
+
+    /**
+     * Move the next present waiting at an output port of a pipelined Turntable out, if there is one.
+     */
+    private void depart(TableState state, int outputPort) {
+        Integer handle = state.departures[outputPort].poll();
+        state.departing[outputPort] = (handle != null);
+        if (handle != null) {
+            scheduleTransfer(Turntable.moveOutTime(), () -> deliver(state, handle, outputPort, NOT_BLOCKED));
+        }
+    }
+
+    /**
+     * Attempt to move a present off a Turntable into a Sack or onto a belt.
+     * @param blockedSince When the Turntable started waiting for a full Sack or belt, or NOT_BLOCKED.
+     */
+    private void deliver(TableState state, int handle, int outputPort, long blockedSince) {
+        Turntable table = state.table;
+        Connection conn = table.getConnection(outputPort);
+        // Read before the present is released into a Sack
+        long takenAt = store.getArrivalTime(handle);
+
+        if (conn.connType == ConnectionType.OutputSack) {
+            if (!conn.sack.offerHandle(handle, now)) {
+                if (blockedSince == NOT_BLOCKED) {
+                    table.setBlocked(true);
+                }
+                long since = (blockedSince == NOT_BLOCKED) ? now : blockedSince;
+                sackWaiters.computeIfAbsent(conn.sack, s -> new ArrayDeque<>())
+                        .add(() -> deliver(state, handle, outputPort, since));
+                return;
+            }
+
+            if (blockedSince != NOT_BLOCKED) {
+                table.recordSackBlocked(now - blockedSince);
+                table.setBlocked(false);
+            }
+            sackFilled(conn.sack);
+            table.recordHandedOn(takenAt, now);
+            if (inputStopped && metrics.isDrained()) {
+                // The last present deposited has reached its sack, so the machine shuts down now
+                finished = true;
+            }
+        } else {
+            if (!conn.belt.offerHandle(handle)) {
+                long since = (blockedSince == NOT_BLOCKED) ? now : blockedSince;
+                beltWaiters.computeIfAbsent(conn.belt, b -> new ArrayDeque<>())
+                        .add(() -> deliver(state, handle, outputPort, since));
+                return;
+            }
+
+            // As a Turntable thread stamps the present before it waits for space on the belt
+            table.recordHandedOn(takenAt, now);
+            store.setArrivalTime(handle, (blockedSince == NOT_BLOCKED) ? now : blockedSince);
+            presentPlaced(conn.belt);
+        }
+
+        table.presentHandedOn();
+        --state.occupied;
+        if (state.isPipelined()) {
+            depart(state, outputPort);
+        }
+        scan(state);
+    }
+
+    /**
+     * Wake the Turntable consuming a belt if it was idle.
+     */
+    private void presentPlaced(Conveyor belt) {
+        TableState consumer = consumers.get(belt);
+        if (consumer != null && consumer.idle) {
+            consumer.idle = false;
+            scheduleTransfer(0, () -> scan(consumer));
+        }
+    }
+
+    /**
+     * Let everything waiting for a belt retry, as `notifyAll()` would.
+     */
+    private void spaceFreed(Conveyor belt) {
+        Deque<Runnable> waiters = beltWaiters.remove(belt);
+        if (waiters != null) {
+            for (Runnable waiter : waiters) {
+                scheduleTransfer(0, waiter);
+            }
+        }
+    }
+
+    /**
+     * Wake an idle Elf if the sack has just become full.
+     */
+    private void sackFilled(Sack sack) {
+        if (elvesReleased && sack.isFull() && !idleElves.isEmpty()) {
+            Elf elf = idleElves.poll();
+            scheduleTransfer(0, () -> dispatchElf(elf));
+        }
+    }
+
+    /**
+     * Let every Turntable waiting on a sack retry, as `notifyAll()` would.
+     */
+    private void sackEmptied(Sack sack) {
+        Deque<Runnable> waiters = sackWaiters.remove(sack);
+        if (waiters != null) {
+            for (Runnable waiter : waiters) {
+                scheduleTransfer(0, waiter);
+            }
+        }
+    }
+
+    private void releaseElves() {
+        elvesReleased = true;
+        for (Elf elf : elves) {
+            dispatchElf(elf);
+        }
+    }
+
+    /**
+     * Give an Elf the next full sack to empty, or let it idle.
+     * @see Elf
+     */
+    private void dispatchElf(Elf elf) {
+        Sack sack = fullSacks.poll();
+
+        if (sack == null) {
+            idleElves.add(elf);
+        } else {
+            scheduleTransfer(elf.getEmptyingTime(), () -> {
+                emptySack(elf, sack);
+                dispatchElf(elf);
+            });
+        }
+    }
+
+    private void emptySack(Elf elf, Sack sack) {
+        if (sack.tryEmpty()) {
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.log(Level.INFO, "Elf " + elf.getElfId() + " emptied Sack " + sack.getSackId() + " at " + now + "ms");
+            }
+            sackEmptied(sack);
+        }
+    }
+}
@@ -1,14 +1,27 @@
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class Elf extends Thread {
+/**
+ * Elves empty Sacks once they are full.
+ * Full Sacks announce themselves on a queue shared by all the Elves, and whichever Elf is idle takes
+ * the next one, so no Elf waits on a Sack which is not full while another one is holding up a Turntable.
+ * @author Jacob
+ */
+public class Elf implements Runnable {
     private final int id;
 
-    /** Every Sack the Elf has to empty. */
-    private final Sack[] sacks;
+    /** Sacks waiting to be emptied, shared by every Elf. */
+    private final BlockingQueue<Sack> fullSacks;
 
-    /** Time to wait for each sack to get filled. */
-    private final int SACK_WAIT = 400;
+    /** The number of Sacks the Elf empties per second, or 0 to empty them instantly. */
+    private final int speed;
+
+    /** The clock of the machine, which emptying Sacks is timed by. */
+    private volatile MachineClock clock = MachineClock.REAL;
+
+    /** Counts each Sack emptied, so snapshots of the machine never see one half emptied. */
+    private volatile SnapshotGate.Turnstile turnstile = new SnapshotGate().newTurnstile();
 
     private static final Logger LOGGER = Logger.getLogger(Elf.class.getName());
 
@@ -16,32 +29,108 @@ public class Elf extends Thread {
         LOGGER.setLevel(level);
     }
 
-    public Elf(int id, Sack[] sacks) {
+    /**
+     * Create an Elf.
+     * @param id The Elf ID.
+     * @param fullSacks The queue full Sacks are placed on.
+     * @param speed The number of Sacks emptied every second, or 0 to empty them instantly.
+     */
+    public Elf(int id, BlockingQueue<Sack> fullSacks, int speed) {
         this.id = id;
-        this.sacks = sacks;
+        this.fullSacks = fullSacks;
+        this.speed = speed;
+    }
+
+    /**
+     * Set the clock the Elf keeps time by.
+     * @param clock The clock of the machine.
+     */
+    public void setClock(MachineClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Set the gate the Elf passes through while emptying a Sack, giving the Elf a Turnstile of its own.
+     * @param gate The gate of the machine.
+     */
+    public void setSnapshotGate(SnapshotGate gate) {
+        this.turnstile = gate.newTurnstile();
+    }
+
+    /**
+     * @return The ID of the Elf.
+     */
+    public int getElfId() {
+        return id;
+    }
+
+    /**
+     * @return The number of Sacks emptied every second, or 0 if they are emptied instantly.
+     */
+    public int getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return The number of milliseconds it takes the Elf to empty a Sack.
+     */
+    public int getEmptyingTime() {
+        return (speed > 0) ? 1000 / speed : 0;
     }
 
     /**
-     * Periodically empty Sacks.
+     * Empty Sacks as they become full.
      */
     @Override
     public void run() {
-        while (!isInterrupted()) {
-            for (Sack sack : sacks) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Sack sack = fullSacks.take();
                 try {
-                    // Wait on sack for some time, then move on to next sack.
-                    boolean emptied = sack.empty(SACK_WAIT);
-
-                    if (emptied) {
-                        LOGGER.log(Level.INFO, "Elf " + id + " emptied Sack " + sack.getSackId());
-                    }
+                    clock.sleep(getEmptyingTime());
                 } catch (InterruptedException e) {
-                    // By convention, any method that exits by throwing an InterruptedException clears interrupt status when it does so.
-                    // However, it's always possible that interrupt status will immediately be set again, by another thread invoking interrupt.
-                    System.out.printf("Elf %s was stopped while waiting.%n", id);
-                    return;
+                    // Hand the Sack back rather than leave it full and out of the queue for good
+                    fullSacks.add(sack);
+                    throw e;
                 }
+
+                long epoch = turnstile.enter();
+                boolean emptied;
+                try {
+                    emptied = sack.tryEmpty(epoch);
+                } finally {
+                    turnstile.exit(epoch);
+                }
+
+                if (emptied && LOGGER.isLoggable(Level.INFO)) {
+                    LOGGER.log(Level.INFO, "Elf " + id + " emptied Sack " + sack.getSackId());
+                }
+            } catch (InterruptedException e) {
+                // By convention, any method that exits by throwing an InterruptedException clears interrupt status when it does so.
+                // However, it's always possible that interrupt status will immediately be set again, by another thread invoking interrupt.
+                System.out.printf("Elf %s was stopped while waiting.%n", id);
+                return;
             }
         }
     }
+
+    /**
+     * A factory that parses a line and constructs an Elf object.
+     * @param config The configuration, at a line to parse (e.g. 1 speed 2)
+     * @param fullSacks The queue full Sacks are placed on.
+     */
+    public static Elf parse(ConfigTokenizer config, BlockingQueue<Sack> fullSacks) {
+        int id = config.nextInt("elf ID");
+        config.expect("speed");
+
+        int speed = config.nextInt("elf speed");
+        if (speed < 0) {
+            throw config.error(ErrorCodes.PARSE_ERROR, "An elf's speed must not be negative.");
+        }
+
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Set up Elf " + id);
+        }
+        return new Elf(id, fullSacks, speed);
+    }
 }
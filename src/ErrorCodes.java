@@ -4,7 +4,11 @@
 public enum ErrorCodes {
     INPUT_FILE_IO_ERROR(1, "Error reading file."),
     HOPPER_AT_CAPACITY(2, "Hopper must be large enough to contain gifts."),
-    ITEM_OUT_OF_RANGE(3, "Item cannot be inserted since container is not large enough.");
+    ITEM_OUT_OF_RANGE(3, "Item cannot be inserted since container is not large enough."),
+    SHARED_SPSC_BELT(4, "A lock-free belt must have exactly one producer and one consumer."),
+    UNKNOWN_DESTINATION(5, "Present is destined for an age range no Sack collects."),
+    UNREACHABLE_DESTINATION(6, "Present cannot reach its Sack from the belt of its Hopper."),
+    PARSE_ERROR(7, "The configuration file is not valid.");
 
     private final int value;
     private final String msg;
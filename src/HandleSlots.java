@@ -0,0 +1,51 @@
+/**
+ * Slots holding only the handles of presents, as a primitive int array.
+ * Presents are moved between slots by their handles, so nothing is allocated on the way through the
+ * machine. A Present view is only created when a slot is read as a Present (e.g. for reporting).
+ * @author Jacob
+ * @see PresentSlots
+ */
+class HandleSlots implements PresentSlots {
+    private final int[] handles;
+    private final PresentStore store;
+
+    HandleSlots(int capacity, PresentStore store) {
+        handles = new int[capacity];
+        this.store = store;
+    }
+
+    @Override
+    public int capacity() {
+        return handles.length;
+    }
+
+    @Override
+    public Present get(int slot) {
+        return store.present(handles[slot]);
+    }
+
+    @Override
+    public void set(int slot, Present present) {
+        handles[slot] = present.getHandle();
+    }
+
+    @Override
+    public int getHandle(int slot) {
+        return handles[slot];
+    }
+
+    @Override
+    public void setHandle(int slot, int handle) {
+        handles[slot] = handle;
+    }
+
+    @Override
+    public int getId(int slot) {
+        return store.getId(handles[slot]);
+    }
+
+    @Override
+    public void clear(int slot) {
+        // Nothing is referenced from the slot
+    }
+}
@@ -1,7 +1,9 @@
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
-import java.util.Scanner;
+import java.nio.IntBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -10,11 +12,15 @@ import java.util.logging.Logger;
  * Hoppers are associated with a conveyor belt, and have a speed of working.
  * According to its pre-set speed of working, at appropriate intervals until it is empty, a hopper will
  * attempt to place presents onto the conveyor belt – as long as there is space on the belt.
+ * A Hopper may instead stream its presents from the configuration file, holding only a window of them
+ * at a time and reading the next window once it has deposited the last.
+ * A Hopper which falls behind its speed (e.g. when its thread oversleeps) deposits every present which has
+ * fallen due in a single burst, rather than one lock and wake-up per present.
  * @author Jacob
  * @author Nick
  */
 @ThreadSafe
-public class Hopper extends Thread
+public class Hopper implements Runnable, HopperMXBean
 {
     /**
      * The Hopper ID.
@@ -30,22 +36,50 @@ public class Hopper extends Thread
     private final int speed;
 
     /**
-     * Contains the Presents.
+     * The maximum amount of Presents the Hopper can fit.
+     */
+    private final int capacity;
+
+    /**
+     * Contains the Presents, or the current window of them when streaming.
+     */
+    @GuardedBy("this")
+    private final PresentSlots collection;
+
+    /**
+     * Number of Presents placed in the collection so far, Present i is held in slot i modulo its capacity.
+     */
+    @GuardedBy("this")
+    private int loaded = 0;
+
+    /**
+     * Where the Presents are read from when streaming, or null.
      */
     @GuardedBy("this")
-    private final Present[] collection;
+    private PresentStream stream = null;
+
+    /**
+     * Held while reading the next window of Presents from the stream.
+     * The reading is done outside of the Hopper's monitor, so counting its Presents (e.g. for a snapshot)
+     * never waits on the file.
+     */
+    private final ReentrantLock refillLock = new ReentrantLock();
 
     /**
      * Count of Presents contained in the array.
+     * Volatile so a snapshot can read it without the monitor, after its Mark has been updated.
      */
     @GuardedBy("this")
-    private int numPresents;
+    private volatile int numPresents;
+
+    /** What numPresents was when the latest snapshot of the machine began. */
+    @GuardedBy("this")
+    private final SnapshotGate.Mark numPresentsMark = new SnapshotGate.Mark();
 
     /**
-     * Hold a global count of all presents instead of trying to acquire locks for every Hopper when computing count.
+     * Counts the presents left in every Hopper of the machine, without locking each Hopper.
      */
-    @GuardedBy("Hopper")
-    private static int totalPresents = 0;
+    private final MachineMetrics metrics;
 
     private int initialNumPresents;
 
@@ -54,6 +88,18 @@ public class Hopper extends Thread
      */
     private long waitingTime = 0;
 
+    /** The clock of the machine, which the Hopper deposits by. */
+    private volatile MachineClock clock = MachineClock.REAL;
+
+    /** Counts each present moved, so snapshots of the machine never see one half moved. */
+    private volatile SnapshotGate.Turnstile turnstile = new SnapshotGate().newTurnstile();
+
+    /** The store of the machine, which the handles of the Hopper's Presents refer to. */
+    private volatile PresentStore store = null;
+
+    /** The most presents deposited in a single burst. */
+    private static final int MAX_BURST = 64;
+
     private static final Logger LOGGER = Logger.getLogger(Hopper.class.getName());
 
     synchronized static public void setLoggerLevel(Level level) {
@@ -67,29 +113,13 @@ public class Hopper extends Thread
         return id;
     }
 
-    synchronized private static void increaseTotal() {
-        ++totalPresents;
-    }
-
-    synchronized private static void decreaseTotal() {
-        --totalPresents;
-    }
-
-    /**
-     * Get the global amount of presents inside all Hoppers.
-     * @return The amount.
-     */
-    synchronized public static int getTotalPresents() {
-        return totalPresents;
-    }
-
     /**
      * Query that the Hopper can fit the number of Presents given.
      * @param count The number of Presents to fit.
      * @return True if that amount of Presents would fit.
      */
-    synchronized public boolean canFit(int count) {
-        return collection.length >= count;
+    public boolean canFit(int count) {
+        return capacity >= count;
     }
 
     /**
@@ -99,6 +129,14 @@ public class Hopper extends Thread
         return numPresents;
     }
 
+    /**
+     * @param epoch The epoch of a snapshot of the machine.
+     * @return The number of Presents in the Hopper when the snapshot began.
+     */
+    int countAt(long epoch) {
+        return (int) numPresentsMark.at(numPresents, epoch);
+    }
+
     /**
      * @return The number of presents that left the hopper.
      */
@@ -106,20 +144,235 @@ public class Hopper extends Thread
         return initialNumPresents - numPresents;
     }
 
+    @Override
+    public int getPresentsRemaining() {
+        return count();
+    }
+
+    @Override
+    public int getPresentsDeposited() {
+        return presentsDeposited();
+    }
+
     synchronized public long getWaitingTime() {
         return waitingTime/1000;
     }
 
+    /**
+     * @return The Conveyor the Hopper places Presents into.
+     */
+    public Conveyor getBelt() {
+        return belt;
+    }
+
+    /**
+     * @return The number of Presents deposited every second.
+     */
+    public int getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Set the clock the Hopper keeps time by.
+     * @param clock The clock of the machine.
+     */
+    public void setClock(MachineClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Set the gate the Hopper passes through while moving a present, giving the Hopper a Turnstile of its own.
+     * @param gate The gate of the machine.
+     */
+    public void setSnapshotGate(SnapshotGate gate) {
+        this.turnstile = gate.newTurnstile();
+    }
+
+    /**
+     * Set the store the handles of the Hopper's Presents refer to.
+     * @param store The store of the machine.
+     */
+    public void setPresentStore(PresentStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @return The maximum amount of Presents the Hopper can fit.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the stream the Hopper reads its Presents from.
+     * Used by the ScenarioCompiler, which reads the Presents itself instead of running the Hopper.
+     * @return The stream, or null if the Hopper is not streaming.
+     */
+    synchronized PresentStream getStream() {
+        return stream;
+    }
+
+    /**
+     * Peek at the next Present to be deposited, without removing it.
+     * Used by the virtual-time simulation, which deposits on behalf of the Hopper.
+     * @return The next Present, or null if the Hopper is empty.
+     */
+    Present peekPresent() {
+        if (count() == 0) {
+            return null;
+        }
+
+        int slot = nextSlot();
+        synchronized (this) {
+            return collection.get(slot);
+        }
+    }
+
+    /**
+     * Make sure the next Present to be deposited has been read, reading the next window of them if streaming.
+     * @return The slot of the next Present, the Hopper must not be empty.
+     */
+    private int nextSlot() {
+        int index;
+        synchronized (this) {
+            index = initialNumPresents - numPresents;
+            if (index < loaded) {
+                return index % collection.capacity();
+            }
+        }
+
+        refill(index);
+        return index % collection.capacity();
+    }
+
+    /**
+     * Read the next window of Presents from the stream, without holding the Hopper's monitor.
+     * Only called once every Present read so far has been deposited, so no one else is using the slots.
+     * @param index The index of the next Present to be deposited.
+     */
+    private void refill(int index) {
+        refillLock.lock();
+        try {
+            int first;
+            PresentStream source;
+            synchronized (this) {
+                first = loaded;
+                source = stream;
+            }
+            if (index < first) {
+                // Already read while waiting for the lock
+                return;
+            }
+
+            int window = Math.min(initialNumPresents - first, collection.capacity());
+            source.read(collection, first % collection.capacity(), window);
+
+            // Publish the window, whoever takes the monitor next sees the Presents just read
+            synchronized (this) {
+                loaded = first + window;
+            }
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    /**
+     * Get the handles of the next Presents to be deposited, without going past the window read so far when streaming.
+     * @param into Where to place the handles.
+     * @param max The most Presents to get, at least 1.
+     * @return The number of handles placed, the Hopper must not be empty.
+     */
+    private int nextPresents(int[] into, int max) {
+        nextSlot();
+
+        synchronized (this) {
+            int index = initialNumPresents - numPresents;
+            int count = Math.min(Math.min(max, numPresents), loaded - index);
+            for (int i = 0; i < count; ++i) {
+                into[i] = collection.getHandle((index + i) % collection.capacity());
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Record that the next Present has been placed on the belt.
+     * @param waited The number of milliseconds spent waiting for space on the belt.
+     */
+    synchronized void recordDeposit(long waited) {
+        recordDeposits(1, waited, SnapshotGate.NO_EPOCH);
+    }
+
+    /**
+     * Record that the next Presents have been placed on the belt.
+     * @param count The number of Presents.
+     * @param waited The number of milliseconds the Hopper spent waiting for space on the belt to place them.
+     * @param epoch The epoch of the transfer placing them.
+     */
+    synchronized private void recordDeposits(int count, long waited, long epoch) {
+        waitingTime += waited;
+        for (int i = 0; i < count; ++i) {
+            int index = initialNumPresents - numPresents;
+            TraceRecorder.record(TraceEvent.HOPPER_DEPOSIT, id, collection.getId(index % collection.capacity()));
+            numPresentsMark.add(numPresents, -1, epoch);
+            --numPresents;
+            metrics.presentDeposited();
+        }
+        if (numPresents == 0) {
+            metrics.hopperEmptied();
+        }
+    }
+
+    /**
+     * Place Presents on the belt, as many at once as there is space for, waiting for more space as needed,
+     * and record the deposits.
+     * The Presents leave the Hopper and join the belt within its Turnstile, but the wait is outside it.
+     * @param burst The handles of the next Presents, in order.
+     * @param count The number of Presents.
+     * @param startTime When the Hopper started to deposit them, in milliseconds on the machine's clock.
+     * @return True if the Hopper had to wait for space on the belt.
+     */
+    private boolean deposit(int[] burst, int count, long startTime) throws InterruptedException {
+        boolean waited = false;
+        int placed = 0;
+        // Count each wait once, however many Presents it held back
+        long waitStart = startTime;
+        while (true) {
+            long epoch = turnstile.enter();
+            try {
+                int deposited = belt.putAll(burst, placed, count - placed, epoch);
+                if (deposited > 0) {
+                    long now = clock.now();
+                    recordDeposits(deposited, now - waitStart, epoch);
+                    waitStart = now;
+                    placed += deposited;
+                }
+            } finally {
+                turnstile.exit(epoch);
+            }
+
+            if (placed == count) {
+                return waited;
+            }
+            belt.awaitSpace();
+            waited = true;
+        }
+    }
+
     /**
      * Create a Hopper.
      * @param id The Hopper ID.
      * @param con The Conveyor to place Presents into.
      * @param capacity The maximum amount of Presents the Hopper can fit.
+     * @param slots The slots to hold Presents in, fewer than the capacity only if streaming.
      * @param speed The number of Presents to be deposited every second.
+     * @param metrics The counts of the machine the Hopper belongs to.
      */
-    public Hopper(int id, Conveyor con, int capacity, int speed)
+    public Hopper(int id, Conveyor con, int capacity, PresentSlots slots, int speed, MachineMetrics metrics)
     {
-        collection = new Present[capacity];
+        this.metrics = metrics;
+        this.capacity = capacity;
+        collection = slots;
         this.id = id;
         belt = con;
         this.speed = speed;
@@ -134,76 +387,142 @@ public class Hopper extends Thread
      */
     synchronized public void fill(Present p) throws IndexOutOfBoundsException
     {
-        if (numPresents < collection.length){
-            System.out.println("Inserting present " + p.destination() + " at position " + numPresents);
-            collection[numPresents] = p;
+        if (stream == null && numPresents < collection.capacity()){
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Inserting present " + p.destination() + " at position " + numPresents);
+            }
+            collection.set(loaded, p);
+            loaded++;
             numPresents++;
             initialNumPresents++;
-            increaseTotal();
+            metrics.presentLoaded();
         } else {
             throw new IndexOutOfBoundsException(ErrorCodes.HOPPER_AT_CAPACITY.getMsg());
         }
     }
 
+    /**
+     * Put a block of Presents in the Hopper collection, adding them to the store in bulk.
+     * @param store The store to add the Presents to.
+     * @param sackIndices The index of the Sack each Present is destined for, from the current position to the limit.
+     * @exception IndexOutOfBoundsException When the max capacity would be exceeded.
+     */
+    synchronized public void fill(PresentStore store, IntBuffer sackIndices)
+    {
+        int count = sackIndices.remaining();
+        if (stream != null || count > collection.capacity() - numPresents) {
+            throw new IndexOutOfBoundsException(ErrorCodes.HOPPER_AT_CAPACITY.getMsg());
+        }
+
+        int first = store.newPresents(sackIndices);
+        for (int i = 0; i < count; ++i) {
+            collection.setHandle(loaded + i, first + i);
+        }
+        loaded += count;
+        numPresents += count;
+        initialNumPresents += count;
+        metrics.presentsLoaded(count);
+    }
+
+    /**
+     * Have the Hopper read its Presents from a stream, a window at a time, instead of filling it.
+     * @param stream The stream of Presents.
+     * @param count The number of Presents in the stream.
+     * @exception IndexOutOfBoundsException When the max capacity would be exceeded.
+     * @exception IllegalStateException When the Hopper already has Presents.
+     */
+    synchronized public void stream(PresentStream stream, int count) {
+        if (count > capacity) {
+            throw new IndexOutOfBoundsException(ErrorCodes.HOPPER_AT_CAPACITY.getMsg());
+        }
+        if (initialNumPresents > 0) {
+            throw new IllegalStateException("Hopper " + id + " can only stream a single section of presents.");
+        }
+
+        this.stream = stream;
+        numPresents = count;
+        initialNumPresents = count;
+        metrics.presentsLoaded(count);
+    }
+
     /**
      * Continuously attempt to place any presents in the Conveyor belt at the determined speed.
+     * Each present is due a whole interval after the last deposit, and every present which has fallen due
+     * by the time the Hopper wakes is deposited together.
      */
     @Override
     public void run() {
+        long interval = 1000 / speed;
+        int[] burst = new int[Math.max(1, Math.min(MAX_BURST, belt.getCapacity()))];
+
         // Fill should not be called once the thread is active, therefore it should be synchronized
-        for (int i = 0; i < initialNumPresents; ++i) {
-            Present present = collection[i];
+        try {
+            long due = clock.now() + interval;
             // Skip presents after thread is interrupted
-            if (!this.isInterrupted()) {
-                try {
-                    sleep(1000 / speed);
-
-                    // Start timer
-                    long startTime = System.currentTimeMillis();
+            while (count() > 0 && !Thread.currentThread().isInterrupted()) {
+                long now = clock.now();
+                if (now < due) {
+                    clock.sleep(due - now);
+                }
 
-                    LOGGER.log(Level.INFO, String.format("Hopper %s deposited item (%s) in belt %s", id, present, belt.getConveyorId()));
-                    belt.putPresent(present);
+                // Start timer
+                long startTime = clock.now();
+                int behind = (interval == 0) ? burst.length
+                        : (int) Math.max(1, Math.min(burst.length, 1 + (startTime - due) / interval));
+                int presents = nextPresents(burst, behind);
 
-                    // Record wait
-                    waitingTime += (System.currentTimeMillis() - startTime);
+                for (int i = 0; i < presents; ++i) {
+                    store.setDepositTime(burst[i], startTime);
+                    store.setArrivalTime(burst[i], startTime);
 
-                    --numPresents;
-                    decreaseTotal();
-                } catch (InterruptedException e) {
-                    System.err.printf("The hopper %s stopped before", id);
-                    System.err.println(" it finished depositing presents.");
-                    return;
+                    if (LOGGER.isLoggable(Level.INFO)) {
+                        LOGGER.log(Level.INFO, String.format("Hopper %s deposited item (%s) in belt %s", id,
+                                store.present(burst[i]), belt.getConveyorId()));
+                    }
                 }
+
+                // Having waited for the belt, the Hopper is back to depositing a whole interval after the last
+                due = deposit(burst, presents, startTime) ? clock.now() + interval : due + presents * interval;
             }
+        } catch (InterruptedException e) {
+            System.err.printf("The hopper %s stopped before", id);
+            System.err.println(" it finished depositing presents.");
+            return;
         }
 
-        if (!this.isInterrupted()) {
+        if (!Thread.currentThread().isInterrupted()) {
             LOGGER.log(Level.INFO, "Hopper " + id + " stopped because it ran out of presents.");
         }
 
     }
 
     /**
-     * A factory that parses a string and constructs a Hopper object.
-     * @param line The string to parse (e.g. 1 belt 1 capacity 10 speed 1)
+     * A factory that parses a line and constructs a Hopper object.
+     * @param config The configuration, at a line to parse (e.g. 1 belt 1 capacity 10 speed 1)
      * @param belts An array of conveyor belts of the system
+     * @param metrics The counts of the machine the Hopper belongs to.
+     * @param slots Creates the slots to hold presents in, given the Hopper's capacity.
      */
-    public static Hopper parseString(String line, Conveyor[] belts) {
-        Scanner hopperStream = new Scanner(line);
-
-        int id = hopperStream.nextInt();
-        hopperStream.next(); // skip "belt"
+    public static Hopper parse(ConfigTokenizer config, Conveyor[] belts, MachineMetrics metrics,
+                               IntFunction<PresentSlots> slots) {
+        int id = config.nextInt("hopper ID");
+        config.expect("belt");
 
-        int belt = hopperStream.nextInt();
-        hopperStream.next(); // skip "capacity"
+        int belt = config.nextIndex("belt", belts.length);
+        config.expect("capacity");
 
-        int capacity = hopperStream.nextInt();
-        hopperStream.next(); // skip "speed"
+        int capacity = config.nextInt("hopper capacity");
+        config.expect("speed");
 
-        int speed = hopperStream.nextInt();
+        int speed = config.nextInt("hopper speed");
+        if (speed <= 0) {
+            throw config.error(ErrorCodes.PARSE_ERROR, "A hopper's speed must be at least 1.");
+        }
 
-        LOGGER.log(Level.INFO, "Set up Hopper " + id);
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Set up Hopper " + id);
+        }
 
-        return new Hopper(id, belts[belt - 1], capacity, speed);
+        return new Hopper(id, belts[belt], capacity, slots.apply(capacity), speed, metrics);
     }
-}
\ No newline at end of file
+}
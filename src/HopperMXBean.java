@@ -0,0 +1,31 @@
+/**
+ * The live state of a Hopper, as published over JMX while the machine runs.
+ * @author Jacob
+ * @see MachineMBeans
+ */
+public interface HopperMXBean {
+    /**
+     * @return The ID of the Hopper.
+     */
+    int getHopperId();
+
+    /**
+     * @return The number of Presents deposited every second.
+     */
+    int getSpeed();
+
+    /**
+     * @return The number of presents still to be deposited.
+     */
+    int getPresentsRemaining();
+
+    /**
+     * @return The number of presents that left the hopper.
+     */
+    int getPresentsDeposited();
+
+    /**
+     * @return Total seconds spent waiting for space on the belt.
+     */
+    long getWaitingTime();
+}
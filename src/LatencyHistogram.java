@@ -0,0 +1,142 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies into log-linear buckets, in the manner of an HDR histogram.
+ * Values up to 127 each have a bucket of their own, and every doubling above that is split into 64 buckets,
+ * so a percentile is never more than 1/64 (under 2%) above the true value, whatever its magnitude.
+ * Recording a value is a few arithmetic operations and an atomic increment, with no locking and no allocation,
+ * so it can be done for every present.
+ * Buckets are allocated a page (one doubling) at a time as values first land in them, so a histogram only
+ * takes space for the magnitudes it has seen, and every component of a large machine can keep its own.
+ * @author Jacob
+ */
+@ThreadSafe
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    /** Enough buckets for every non-negative long. */
+    private static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+    /** Buckets per page, the buckets of one doubling. */
+    private static final int PAGE_BITS = SUB_BUCKET_BITS - 1;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGES = (BUCKETS + PAGE_SIZE - 1) / PAGE_SIZE;
+
+    /** The count of each bucket, a page at a time, or null for pages with nothing recorded yet. */
+    private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(PAGES);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     * @param value The latency, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        int bucket = bucketOf(value);
+        page(bucket >>> PAGE_BITS).incrementAndGet(bucket & (PAGE_SIZE - 1));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * @return The number of latencies recorded.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The largest latency recorded, or 0 if there are none.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return The mean latency, or 0 if there are none.
+     */
+    public double getMean() {
+        long recorded = count.sum();
+        return (recorded > 0) ? (double) sum.sum() / recorded : 0;
+    }
+
+    /**
+     * Get the latency which a given percentage of the latencies recorded are at or below.
+     * @param percentile The percentage, from 0 to 100.
+     * @return The highest value of the bucket holding that latency, or 0 if there are none.
+     */
+    public long getPercentile(double percentile) {
+        long recorded = 0;
+        long[] snapshot = new long[PAGES * PAGE_SIZE];
+        for (int i = 0; i < PAGES; ++i) {
+            AtomicLongArray page = pages.get(i);
+            for (int j = 0; page != null && j < PAGE_SIZE; ++j) {
+                snapshot[i * PAGE_SIZE + j] = page.get(j);
+                recorded += snapshot[i * PAGE_SIZE + j];
+            }
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(recorded * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return The counts of a page of buckets, allocating it if nothing has been recorded in it yet.
+     */
+    private AtomicLongArray page(int index) {
+        AtomicLongArray page = pages.get(index);
+        if (page == null) {
+            pages.compareAndSet(index, null, new AtomicLongArray(PAGE_SIZE));
+            page = pages.get(index);
+        }
+        return page;
+    }
+
+    /**
+     * @return The index of the bucket holding a non-negative value.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        // Shift the value down to between HALF_SUB_BUCKETS and SUB_BUCKETS
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The highest value held by a bucket.
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long lowest = (long) ((bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
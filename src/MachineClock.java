@@ -0,0 +1,66 @@
+import net.jcip.annotations.Immutable;
+
+/**
+ * The clock the components of a machine keep time by, which can run faster than real time.
+ * Every delay of the machine (hopper deposits, turntable moves, elves emptying sacks and the timer) is given
+ * in milliseconds of machine time, and takes that long times the scale in real time; times read from the clock
+ * are in machine time too, so reports are the same whatever the scale.
+ * @author Jacob
+ * @see PresentSortingMachine#setTimeScale(double)
+ */
+@Immutable
+public class MachineClock {
+    /** Runs in real time. */
+    public static final MachineClock REAL = new MachineClock(1);
+
+    private final double scale;
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param scale Real time taken per unit of machine time, e.g. 0.1 runs the machine 10 times faster.
+     * @exception IllegalArgumentException When the scale is not positive.
+     */
+    public MachineClock(double scale) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("The time scale must be greater than 0, not " + scale + ".");
+        }
+        this.scale = scale;
+    }
+
+    /**
+     * @return Real time taken per unit of machine time.
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * @return The machine time in milliseconds, since the clock was created.
+     */
+    public long now() {
+        return (long) ((System.nanoTime() - origin) / (1e6 * scale));
+    }
+
+    /**
+     * @param millis A length of machine time, in milliseconds.
+     * @return The real time it takes, in nanoseconds.
+     */
+    public long toNanos(long millis) {
+        return (long) (millis * scale * 1e6);
+    }
+
+    /**
+     * Sleep for a length of machine time.
+     * Real sleeps are never shorter than a millisecond, so heavily scaled delays run a little slow.
+     * @param millis The number of milliseconds of machine time.
+     */
+    public void sleep(long millis) throws InterruptedException {
+        if (scale == 1) {
+            Thread.sleep(millis);
+            return;
+        }
+
+        long nanos = toNanos(millis);
+        Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+    }
+}
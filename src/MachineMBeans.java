@@ -0,0 +1,100 @@
+import net.jcip.annotations.NotThreadSafe;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes every component of a machine as an MXBean on the platform MBean server, so a long run
+ * can be watched live with JConsole or any other JMX client.
+ * The beans read counters the components keep anyway, so publishing them costs nothing on the paths
+ * presents take, only when a client reads them.
+ * Beans are named {@code PresentSortingMachine:machine=N,type=TYPE,name=ID}, where N tells apart the
+ * machines run by the same JVM.
+ * @author Jacob
+ * @see ConveyorMXBean
+ * @see HopperMXBean
+ * @see SackMXBean
+ * @see TurntableMXBean
+ * @see MachineMetricsMXBean
+ */
+@NotThreadSafe
+public class MachineMBeans {
+    static final String DOMAIN = "PresentSortingMachine";
+
+    /** Numbers the machines of the JVM, so their beans never clash. */
+    private static final AtomicInteger MACHINES = new AtomicInteger();
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final String prefix = DOMAIN + ":machine=" + MACHINES.incrementAndGet() + ",type=";
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    private static final Logger LOGGER = Logger.getLogger(MachineMBeans.class.getName());
+
+    synchronized static public void setLoggerLevel(Level level) {
+        LOGGER.setLevel(level);
+    }
+
+    /**
+     * Register a bean for the machine and each of its components.
+     * A bean which cannot be registered is logged and skipped, watching the machine is never worth stopping it.
+     */
+    public void register(MachineMetrics metrics, Conveyor[] belts, Hopper[] hoppers, Sack[] sacks,
+                         Turntable[] tables) {
+        register("Machine", "metrics", metrics, MachineMetricsMXBean.class);
+        for (Conveyor belt : belts) {
+            register("Conveyor", String.valueOf(belt.getConveyorId()), belt, ConveyorMXBean.class);
+        }
+        for (Hopper hopper : hoppers) {
+            register("Hopper", String.valueOf(hopper.getHopperId()), hopper, HopperMXBean.class);
+        }
+        for (Sack sack : sacks) {
+            register("Sack", String.valueOf(sack.getSackId()), sack, SackMXBean.class);
+        }
+        for (Turntable table : tables) {
+            register("Turntable", table.getTurntableId(), table, TurntableMXBean.class);
+        }
+        LOGGER.log(Level.INFO, "Registered " + registered.size() + " MBeans under " + prefix);
+    }
+
+    /**
+     * Unregister every bean registered so far.
+     */
+    public void unregister() {
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Could not unregister " + name + ": " + e.getMessage());
+            }
+        }
+        registered.clear();
+    }
+
+    private <T> void register(String type, String id, T component, Class<T> mxBean) {
+        try {
+            // Turntable IDs are free text, which may hold characters with a meaning in object names
+            ObjectName name = new ObjectName(prefix + type + ",name=" + quoteIfNeeded(id));
+            server.registerMBean(new StandardMBean(component, mxBean, true), name);
+            registered.add(name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Could not register the " + type + " " + id + ": " + e.getMessage());
+        }
+    }
+
+    private static String quoteIfNeeded(String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            if (",=:\"*?\n".indexOf(value.charAt(i)) >= 0) {
+                return ObjectName.quote(value);
+            }
+        }
+        return value;
+    }
+}
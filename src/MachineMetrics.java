@@ -0,0 +1,180 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the presents moving through one Present Sorting Machine.
+ * Every Hopper and Sack updates the counts as presents come and go. The counters are striped, so
+ * components never contend on a shared lock; the stripes are only summed when a report reads them.
+ * The presents in flight (deposited but not yet in a Sack) and the Hoppers with presents left are counted
+ * exactly instead, so the controller of the machine can wait for either to reach zero and be woken the moment
+ * it does, rather than polling.
+ * @author Jacob
+ */
+@ThreadSafe
+public class MachineMetrics implements MachineMetricsMXBean {
+    /** Presents loaded into the Hoppers and not yet deposited. */
+    private final LongAdder presentsInHoppers = new LongAdder();
+
+    /** Presents placed into Sacks, including those since emptied by the Elves. */
+    private final LongAdder presentsCollected = new LongAdder();
+
+    /** Presents deposited by a Hopper and not yet placed into a Sack. */
+    private final AtomicLong presentsInFlight = new AtomicLong();
+
+    /** Hoppers which still have presents to deposit. */
+    private final AtomicInteger hoppersWithPresents = new AtomicInteger();
+
+    /** Signalled when the presents in flight or the Hoppers with presents left reach zero. */
+    private final ReentrantLock quiescenceLock = new ReentrantLock();
+    private final Condition quiescence = quiescenceLock.newCondition();
+
+    /** Milliseconds of machine time from each present being deposited by its Hopper to reaching its Sack. */
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+
+    /**
+     * Record a present being loaded into a Hopper.
+     */
+    public void presentLoaded() {
+        presentsInHoppers.increment();
+    }
+
+    /**
+     * Record presents being assigned to a Hopper, which will stream them in later.
+     * @param count The number of presents.
+     */
+    public void presentsLoaded(int count) {
+        presentsInHoppers.add(count);
+    }
+
+    /**
+     * Record a present leaving a Hopper onto its belt.
+     */
+    public void presentDeposited() {
+        presentsInHoppers.decrement();
+        presentsInFlight.incrementAndGet();
+    }
+
+    /**
+     * Set the number of Hoppers with presents to deposit, as the machine starts.
+     * @param count The number of Hoppers.
+     */
+    public void setHoppersWithPresents(int count) {
+        hoppersWithPresents.set(count);
+    }
+
+    /**
+     * Record a Hopper depositing its last present.
+     */
+    public void hopperEmptied() {
+        if (hoppersWithPresents.decrementAndGet() == 0) {
+            wakeController();
+        }
+    }
+
+    /**
+     * Record a present being placed into a Sack.
+     * @param latency The milliseconds since the present was deposited by its Hopper.
+     */
+    public void presentCollected(long latency) {
+        presentsCollected.increment();
+        endToEndLatency.record(latency);
+        if (presentsInFlight.decrementAndGet() == 0) {
+            wakeController();
+        }
+    }
+
+    /**
+     * @return True if every Hopper has deposited all of its presents.
+     */
+    public boolean areHoppersEmpty() {
+        return hoppersWithPresents.get() == 0;
+    }
+
+    /**
+     * @return True if every present deposited has reached a Sack.
+     */
+    public boolean isDrained() {
+        return presentsInFlight.get() == 0;
+    }
+
+    /**
+     * Wait until every Hopper has deposited all of its presents.
+     * @param clock The clock of the machine.
+     * @param millis The most milliseconds of machine time to wait.
+     * @return True if the Hoppers are empty, false if the time ran out first.
+     */
+    public boolean awaitHoppersEmpty(MachineClock clock, long millis) throws InterruptedException {
+        return await(hoppersWithPresents, clock, millis);
+    }
+
+    /**
+     * Wait until every present deposited has reached a Sack.
+     * Only final once the Hoppers have stopped, as they may deposit more.
+     * @param clock The clock of the machine.
+     * @param millis The most milliseconds of machine time to wait.
+     * @return True if the machine is drained, false if the time ran out first.
+     */
+    public boolean awaitDrained(MachineClock clock, long millis) throws InterruptedException {
+        return await(presentsInFlight, clock, millis);
+    }
+
+    private boolean await(Number count, MachineClock clock, long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + clock.toNanos(millis);
+        quiescenceLock.lock();
+        try {
+            // A count reaching zero wakes the controller under the same lock, so the wake-up cannot be missed
+            while (count.longValue() != 0) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    return false;
+                }
+                quiescence.awaitNanos(nanos);
+            }
+        } finally {
+            quiescenceLock.unlock();
+        }
+        return true;
+    }
+
+    private void wakeController() {
+        quiescenceLock.lock();
+        try {
+            quiescence.signalAll();
+        } finally {
+            quiescenceLock.unlock();
+        }
+    }
+
+    /**
+     * Get the amount of presents inside all Hoppers.
+     * @return The amount.
+     */
+    public int getPresentsInHoppers() {
+        return presentsInHoppers.intValue();
+    }
+
+    /**
+     * Get the amount of presents which have reached the Sacks.
+     * @return The amount.
+     */
+    public int getPresentsCollected() {
+        return presentsCollected.intValue();
+    }
+
+    @Override
+    public long getEndToEndLatencyP99() {
+        return endToEndLatency.getPercentile(99);
+    }
+
+    /**
+     * @return The milliseconds of machine time from each present being deposited by its Hopper to reaching its Sack.
+     */
+    public LatencyHistogram getEndToEndLatency() {
+        return endToEndLatency;
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * The live counts of a whole machine, as published over JMX while it runs.
+ * @author Jacob
+ * @see MachineMBeans
+ */
+public interface MachineMetricsMXBean {
+    /**
+     * @return The amount of presents inside all Hoppers.
+     */
+    int getPresentsInHoppers();
+
+    /**
+     * @return The amount of presents which have reached the Sacks.
+     */
+    int getPresentsCollected();
+
+    /**
+     * @return The 99th percentile of milliseconds from presents being deposited to reaching their Sack.
+     */
+    long getEndToEndLatencyP99();
+}
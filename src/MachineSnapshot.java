@@ -0,0 +1,158 @@
+import net.jcip.annotations.Immutable;
+
+/**
+ * The counts of every component of a machine at one instant, taken through its SnapshotGate so no present
+ * is counted twice, or missed, while moving between components.
+ * Every present is either in a Hopper, on a belt, on a Turntable or has reached a Sack, so the snapshot
+ * can check that none went missing even while the machine is running.
+ * @author Jacob
+ * @see SnapshotGate
+ * @see PresentSortingMachine#snapshot()
+ */
+@Immutable
+public class MachineSnapshot {
+    private final long epoch;
+    private final long time;
+    private final int totalPresents;
+    private final int[] hopperCounts;
+    private final int[] beltCounts;
+    private final int[] tableCounts;
+    private final int[] sackCounts;
+    private final int presentsCollected;
+
+    /**
+     * Read the counts of a machine's components as they were when the epoch of the snapshot began.
+     * @param epoch The epoch of the snapshot, later snapshots have higher epochs.
+     * @param time The time of the snapshot, in milliseconds since the machine started.
+     * @param totalPresents The number of presents the machine was loaded with.
+     */
+    MachineSnapshot(long epoch, long time, int totalPresents, Hopper[] hoppers,
+                    Conveyor[] belts, Turntable[] tables, Sack[] sacks) {
+        this.epoch = epoch;
+        this.time = time;
+        this.totalPresents = totalPresents;
+
+        hopperCounts = new int[hoppers.length];
+        for (int i = 0; i < hoppers.length; ++i) {
+            hopperCounts[i] = hoppers[i].countAt(epoch);
+        }
+        beltCounts = new int[belts.length];
+        for (int i = 0; i < belts.length; ++i) {
+            beltCounts[i] = belts[i].countAt(epoch);
+        }
+        tableCounts = new int[tables.length];
+        for (int i = 0; i < tables.length; ++i) {
+            tableCounts[i] = tables[i].countAt(epoch);
+        }
+        sackCounts = new int[sacks.length];
+        long collected = 0;
+        for (int i = 0; i < sacks.length; ++i) {
+            sackCounts[i] = sacks[i].countAt(epoch);
+            collected += sacks[i].presentsCollectedAt(epoch);
+        }
+        presentsCollected = (int) collected;
+    }
+
+    /**
+     * @return The epoch of the snapshot, later snapshots of the same machine have higher epochs.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return When the snapshot was taken, in milliseconds of machine time since the machine started.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return The number of presents the machine was loaded with.
+     */
+    public int getTotalPresents() {
+        return totalPresents;
+    }
+
+    /**
+     * @return The number of presents still in the Hoppers.
+     */
+    public int getPresentsInHoppers() {
+        return sum(hopperCounts);
+    }
+
+    /**
+     * @return The number of presents on the belts.
+     */
+    public int getPresentsOnBelts() {
+        return sum(beltCounts);
+    }
+
+    /**
+     * @return The number of presents on the Turntables.
+     */
+    public int getPresentsOnTurntables() {
+        return sum(tableCounts);
+    }
+
+    /**
+     * @return The number of presents still on the machine, including those in the Hoppers.
+     */
+    public int getPresentsOnMachine() {
+        return getPresentsInHoppers() + getPresentsOnBelts() + getPresentsOnTurntables();
+    }
+
+    /**
+     * @return The number of presents which have reached the Sacks, including those since emptied.
+     */
+    public int getPresentsCollected() {
+        return presentsCollected;
+    }
+
+    /**
+     * @return The number of presents neither on the machine nor in the Sacks, which should always be 0.
+     */
+    public int getPresentsMissing() {
+        return totalPresents - presentsCollected - getPresentsOnMachine();
+    }
+
+    /**
+     * @param index The index of a Hopper.
+     * @return The number of presents in it.
+     */
+    public int getHopperCount(int index) {
+        return hopperCounts[index];
+    }
+
+    /**
+     * @param index The index of a belt.
+     * @return The number of presents on it.
+     */
+    public int getBeltCount(int index) {
+        return beltCounts[index];
+    }
+
+    /**
+     * @param index The index of a Turntable.
+     * @return The number of presents on it.
+     */
+    public int getTableCount(int index) {
+        return tableCounts[index];
+    }
+
+    /**
+     * @param index The index of a Sack.
+     * @return The number of presents in it.
+     */
+    public int getSackCount(int index) {
+        return sackCounts[index];
+    }
+
+    private static int sum(int[] counts) {
+        int sum = 0;
+        for (int count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+}
@@ -1,29 +1,115 @@
+import java.io.IOException;
 import java.util.logging.Level;
 
 public class Main {
+    /** The number of records the trace ring buffer holds before dropping them. */
+    private static final int TRACE_CAPACITY = 1 << 20;
+
     /**
      * Creates a PresentSortingMachine and starts it, then prints its report.
-     * @param args Command-line arguments (unused).
+     * @param args Command-line arguments: an optional configuration file (or a scenario compiled from one by
+     *             the ScenarioCompiler), `--virtual-time` to simulate
+     *             the run in virtual time instead of waiting in real time, and `--trace FILE` to record
+     *             every machine event into a binary trace file, and `--routing POLICY` to choose how
+     *             turntables spread presents over redundant paths (first-fit, least-loaded, power-of-two),
+     *             and `--elves-from-start` to have the Elves empty Sacks while input is still running,
+     *             and `--end-when-empty` to stop input as soon as every hopper is empty, not when the timer runs out,
+     *             and `--intake-batch N` to have turntables take up to N waiting presents off a belt at once,
+     *             and `--turntable-slots N` to pipeline turntables, with up to N presents moving across each,
+     *             and `--runtime RUNTIME` to run components on platform or virtual (Java 21+) threads,
+     *             and `--compact-buffers` to hold presents as int handles in every belt, hopper and sack,
+     *             and `--stream-presents N` to have each hopper hold only N presents at a time, reading
+     *             the rest from the file as it goes, and `--time-scale F` to run F times as slow as real
+     *             time (e.g. 0.1 runs ten times faster) while reporting the same times, and `--no-jmx` to
+     *             not publish the components as MXBeans while the machine runs.
      */
     public static void main(String[] args) {
         String filePath = "scenarios/scenario5.txt";
+        String traceFile = null;
+        RoutingPolicy routing = RoutingPolicy.FIRST_FIT;
+        boolean virtualTime = false;
+        boolean elvesFromStart = false;
+        boolean endWhenEmpty = false;
+        int intakeBatch = 1;
+        int turntableSlots = 1;
+        ComponentRuntime runtime = ComponentRuntime.PLATFORM;
+        boolean compactBuffers = false;
+        int presentWindow = 0;
+        double timeScale = 1;
+        boolean management = true;
+
+        for (int i = 0; i < args.length; ++i) {
+            if ("--virtual-time".equals(args[i])) {
+                virtualTime = true;
+            } else if ("--trace".equals(args[i])) {
+                traceFile = args[++i];
+            } else if ("--elves-from-start".equals(args[i])) {
+                elvesFromStart = true;
+            } else if ("--end-when-empty".equals(args[i])) {
+                endWhenEmpty = true;
+            } else if ("--intake-batch".equals(args[i])) {
+                intakeBatch = Integer.parseInt(args[++i]);
+            } else if ("--turntable-slots".equals(args[i])) {
+                turntableSlots = Integer.parseInt(args[++i]);
+            } else if ("--compact-buffers".equals(args[i])) {
+                compactBuffers = true;
+            } else if ("--stream-presents".equals(args[i])) {
+                presentWindow = Integer.parseInt(args[++i]);
+            } else if ("--time-scale".equals(args[i])) {
+                timeScale = Double.parseDouble(args[++i]);
+            } else if ("--no-jmx".equals(args[i])) {
+                management = false;
+            } else if ("--runtime".equals(args[i])) {
+                runtime = ComponentRuntime.fromName(args[++i]);
+            } else if ("--routing".equals(args[i])) {
+                routing = RoutingPolicy.fromName(args[++i]);
+            } else {
+                filePath = args[i];
+            }
+        }
+
         setLoggingLevels();
 
         // Read in file
-        var machine = new PresentSortingMachine(filePath);
+        var machine = new PresentSortingMachine(filePath, compactBuffers, presentWindow);
+        machine.setRoutingPolicy(routing);
+        machine.setElvesFromStart(elvesFromStart);
+        machine.setEndWhenEmpty(endWhenEmpty);
+        machine.setIntakeBatch(intakeBatch);
+        machine.setTurntableSlots(turntableSlots);
+        machine.setComponentRuntime(runtime);
+        machine.setTimeScale(timeScale);
+        machine.setManagementEnabled(management);
         try {
-            machine.run();
-        } catch (InterruptedException e) {
+            TraceRecorder recorder = (traceFile != null) ? TraceRecorder.start(traceFile, TRACE_CAPACITY) : null;
+
+            try {
+                if (virtualTime) {
+                    machine.simulate();
+                } else {
+                    machine.run();
+                }
+            } finally {
+                // Flush the trace even if the run failed, it is most useful then
+                if (recorder != null) {
+                    recorder.stop();
+                }
+            }
+        } catch (InterruptedException | IOException e) {
             throw new RuntimeException(e);
         }
         machine.printReport();
     }
 
-    private static void setLoggingLevels() {
+    static void setLoggingLevels() {
         Conveyor.setLoggerLevel(Level.WARNING);
         Elf.setLoggerLevel(Level.WARNING);
         Sack.setLoggerLevel(Level.WARNING);
         Turntable.setLoggerLevel(Level.WARNING);
         Hopper.setLoggerLevel(Level.WARNING);
+        DiscreteEventSimulation.setLoggerLevel(Level.WARNING);
+        TraceRecorder.setLoggerLevel(Level.WARNING);
+        RoutePlanner.setLoggerLevel(Level.WARNING);
+        MachineMBeans.setLoggerLevel(Level.WARNING);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+/**
+ * Slots holding Present objects.
+ * A present placed by its handle is given the view the store keeps of it, so no object is created.
+ * @author Jacob
+ * @see PresentSlots
+ */
+class ObjectSlots implements PresentSlots {
+    private final Present[] presents;
+    /** The store the handles placed in the slots refer to, or null if only Presents are placed. */
+    private final PresentStore store;
+
+    ObjectSlots(int capacity, PresentStore store) {
+        presents = new Present[capacity];
+        this.store = store;
+    }
+
+    @Override
+    public int capacity() {
+        return presents.length;
+    }
+
+    @Override
+    public Present get(int slot) {
+        return presents[slot];
+    }
+
+    @Override
+    public void set(int slot, Present present) {
+        presents[slot] = present;
+    }
+
+    @Override
+    public int getHandle(int slot) {
+        return presents[slot].getHandle();
+    }
+
+    @Override
+    public void setHandle(int slot, int handle) {
+        if (store == null) {
+            throw new IllegalStateException("These slots can only be given Presents, not handles.");
+        }
+        presents[slot] = store.present(handle);
+    }
+
+    @Override
+    public int getId(int slot) {
+        return presents[slot].getId();
+    }
+
+    @Override
+    public void clear(int slot) {
+        presents[slot] = null;
+    }
+}
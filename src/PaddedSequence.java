@@ -0,0 +1,18 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sequence counter padded out to its own cache line, so the producer and consumer of a queue
+ * updating their own counters do not keep invalidating each other's cache (false sharing).
+ * @author Jacob
+ */
+@SuppressWarnings("unused")
+public class PaddedSequence extends AtomicLong {
+    private static final long serialVersionUID = 1L;
+
+    // Fill the rest of the 64 byte cache line after the value
+    private long p1, p2, p3, p4, p5, p6, p7;
+
+    public PaddedSequence(long initialValue) {
+        super(initialValue);
+    }
+}
@@ -1,8 +0,0 @@
-/**
- * Represents a stage per section in the configuration file.
- */
-public enum ParseStage {
-    CLEAR,
-    COUNT,
-    CONTENT
-}
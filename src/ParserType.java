@@ -7,7 +7,8 @@ public enum ParserType {
     SACKS(2),
     TURNTABLES(3),
     PRESENTS(4),
-    TIMER(5);
+    TIMER(5),
+    ELVES(6);
 
     private final int index;
     ParserType(int index) {
@@ -4,27 +4,41 @@ import net.jcip.annotations.Immutable;
  * Represents a single present.
  * Present objects are created at the start of the simulation and loaded into the hopper
  * to simulate the toys to be distributed.
+ * The state of the present lives in the machine's PresentStore, the object only holds its handle.
  * @author Jacob
  * @author Nick
+ * @see PresentStore
  */
 @Immutable
 public class Present
 {
-    // Helper field to check it is working
-    private final int id;
-    private final String ageRange;
-    private static int count = 0;
-    //private final String type;
+    private final PresentStore store;
+    private final int handle;
 
     /**
-     * Creates a Present.
-     * @param destination The target age group of the present.
+     * Creates a view of a Present in a store.
+     * Presents are added to a store with `PresentStore.newPresent()`.
+     * @param store The store of the machine the present belongs to.
+     * @param handle The handle of the present in the store.
      */
-    public Present(String destination)
+    Present(PresentStore store, int handle)
     {
-        ageRange = destination;
-        id = count;
-        ++count;
+        this.store = store;
+        this.handle = handle;
+    }
+
+    /**
+     * @return The ID of the Present.
+     */
+    public int getId() {
+        return store.getId(handle);
+    }
+
+    /**
+     * @return The handle of the Present in its store.
+     */
+    int getHandle() {
+        return handle;
     }
 
     /**
@@ -33,11 +47,57 @@ public class Present
      */
     public String destination()
     {
-        return ageRange;
+        return store.getDestination(handle);
+    }
+
+    /**
+     * The index of the Sack the Present is destined for, resolved when the Present is loaded.
+     * @return The index in the machine's array of Sacks.
+     */
+    public int getSackIndex() {
+        return store.getSackIndex(handle);
+    }
+
+    /**
+     * Record when the Present was deposited by its Hopper.
+     * @param time The time in milliseconds on the machine's clock.
+     */
+    public void markDeposited(long time) {
+        store.setDepositTime(handle, time);
+    }
+
+    /**
+     * @return When the Present was deposited by its Hopper, in milliseconds on the machine's clock.
+     */
+    public long getDepositTime() {
+        return store.getDepositTime(handle);
+    }
+
+    /**
+     * Record when the Present reached a stage of the machine, so the time it spends there can be measured.
+     * Set as it is put on a belt, and again as a Turntable takes it off.
+     * @param time The time in milliseconds on the machine's clock.
+     */
+    public void markArrived(long time) {
+        store.setArrivalTime(handle, time);
+    }
+
+    /**
+     * @return When the Present reached the stage of the machine it is at, in milliseconds on the machine's clock.
+     */
+    public long getArrivalTime() {
+        return store.getArrivalTime(handle);
+    }
+
+    /**
+     * Let the store reuse the Present's handle, once it has reached its Sack and will not be read again.
+     */
+    public void release() {
+        store.release(handle);
     }
 
     @Override
     public String toString() {
-        return String.format("Present %s (%s)", id, ageRange);
+        return String.format("Present %s (%s)", getId(), destination());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+/**
+ * The fixed-size array of slots a Conveyor, Hopper or Sack keeps its presents in.
+ * Slots either hold Present objects, or just the presents' handles in the machine's PresentStore,
+ * which takes a quarter of the memory and leaves nothing for the garbage collector to trace.
+ * A slot is not checked for being empty, the owner keeps count of which slots are in use.
+ * @author Jacob
+ * @see PresentStore
+ */
+public interface PresentSlots {
+    /**
+     * @return The number of slots.
+     */
+    int capacity();
+
+    /**
+     * @param slot The index of a slot in use.
+     * @return The Present in the slot.
+     */
+    Present get(int slot);
+
+    /**
+     * Place a Present in a slot.
+     * @param slot The index of the slot.
+     * @param present The Present.
+     */
+    void set(int slot, Present present);
+
+    /**
+     * Read a slot without creating a view of its Present, for moving it on to other slots.
+     * @param slot The index of a slot in use.
+     * @return The handle of the Present in the slot.
+     */
+    int getHandle(int slot);
+
+    /**
+     * Place a present in a slot by its handle.
+     * @param slot The index of the slot.
+     * @param handle The handle of the present, in the store the slots were created with.
+     */
+    void setHandle(int slot, int handle);
+
+    /**
+     * @param slot The index of a slot in use.
+     * @return The ID of the Present in the slot, without creating a view of it.
+     */
+    int getId(int slot);
+
+    /**
+     * Release a slot which is no longer in use.
+     * @param slot The index of the slot.
+     */
+    void clear(int slot);
+
+    /**
+     * Create slots holding Present objects, which can only be given Presents and not handles.
+     * @param capacity The number of slots.
+     * @return The slots.
+     */
+    static PresentSlots ofObjects(int capacity) {
+        return new ObjectSlots(capacity, null);
+    }
+
+    /**
+     * Create slots holding Present objects, looking up the view of a present given by its handle.
+     * @param capacity The number of slots.
+     * @param store The store the handles refer to.
+     * @return The slots.
+     * @see PresentStore#setCachingViews(boolean)
+     */
+    static PresentSlots ofObjects(int capacity, PresentStore store) {
+        return new ObjectSlots(capacity, store);
+    }
+
+    /**
+     * Create slots holding only the handles of presents.
+     * @param capacity The number of slots.
+     * @param store The store the handles refer to.
+     * @return The slots.
+     */
+    static PresentSlots ofHandles(int capacity, PresentStore store) {
+        return new HandleSlots(capacity, store);
+    }
+}
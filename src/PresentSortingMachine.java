@@ -1,9 +1,18 @@
-import java.io.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static java.lang.Thread.sleep;
-
 /**
  * Represents an instance of the Present Sorting Machine.
  * @author Jacob <jsanchez-perez@uclan.ac.uk>
@@ -12,9 +21,62 @@ public class PresentSortingMachine {
     private Conveyor[] belts;
     private Hopper[] hoppers;
     private Sack[] sacks;
-    private Elf elf;
+    private Elf[] elves;
+
+    /** Full Sacks waiting for an Elf to empty them. */
+    private final BlockingQueue<Sack> fullSacks = new LinkedBlockingQueue<>();
+
+    /** Counts of presents in the Hoppers and Sacks of this machine. */
+    private final MachineMetrics metrics = new MachineMetrics();
     private Turntable[] tables;
 
+    /** Lookup of age range -> index of the Sack collecting it, once the Sacks are known. */
+    private ConfigTokenizer.Vocabulary ageRanges = null;
+
+    /** The headers of the sections of the configuration file, in the order of ParserType. */
+    private static final ConfigTokenizer.Vocabulary SECTIONS = sectionNames();
+
+    /** Plans the routes through the turntables, once they have all been set up. */
+    private RoutePlanner routePlanner = null;
+
+    /** Holds the state of every present. */
+    private final PresentStore presentStore = new PresentStore();
+
+    /** True if belts, hoppers and sacks hold the handles of presents rather than Present objects. */
+    private final boolean compactBuffers;
+
+    /** The number of presents each Hopper holds at a time when streaming them, or 0 to load them all. */
+    private final int presentWindow;
+
+    /** Creates the threads the Hoppers, Turntables and Elves run on. */
+    private ComponentRuntime runtime = ComponentRuntime.PLATFORM;
+
+    /** The threads running each component, once started. */
+    private Thread[] hopperThreads = new Thread[0];
+    private Thread[] tableThreads = new Thread[0];
+    private Thread[] elfThreads = new Thread[0];
+
+    /** True if the Elves work from the start, rather than once input stops. */
+    private boolean elvesFromStart = false;
+
+    /** True if input stops as soon as every Hopper is empty, rather than when the timer runs out. */
+    private boolean endWhenEmpty = false;
+
+    /** The clock every component keeps time by. */
+    private MachineClock clock = MachineClock.REAL;
+
+    /** Gives every component which moves presents a Turnstile and begins the epoch of each snapshot. */
+    private final SnapshotGate gate = new SnapshotGate();
+
+    /** True while the machine is running in real (or scaled) time. */
+    private volatile boolean running = false;
+
+    /** Counts the CPU time and memory used by the components' threads, or null. */
+    private ThreadUsage threadUsage = null;
+
+    /** True if the components are published over JMX while the machine runs. */
+    private boolean managementEnabled = true;
+
     private int timerLength;
     private int totalPresents;
     private final String configFile;
@@ -39,68 +101,305 @@ public class PresentSortingMachine {
      * @param fileName A configuration file to start the machine to.
      */
     public PresentSortingMachine(String fileName) {
+        this(fileName, false, 0);
+    }
+
+    /**
+     * Create a new Present Sorting Machine instance
+     * @param fileName A configuration file to start the machine to, or a scenario compiled from one.
+     * @param compactBuffers True to hold presents as int handles in every belt, hopper and sack buffer.
+     * @param presentWindow The number of presents each Hopper holds at a time, streaming the rest from
+     *                      the file as it deposits them, or 0 to load every present up front.
+     * @see PresentSlots
+     * @see PresentStream
+     * @see ScenarioCompiler
+     */
+    public PresentSortingMachine(String fileName, boolean compactBuffers, int presentWindow) {
+        this.compactBuffers = compactBuffers;
+        this.presentWindow = presentWindow;
         configFile = fileName;
-        parseFile(fileName);
+        // Streamed presents are forgotten once sorted, so their state can be reused
+        presentStore.setRecycling(presentWindow > 0);
+        // Presents are moved by their handles, so slots holding objects look up a single view of each
+        presentStore.setCachingViews(!compactBuffers);
+        if (ScenarioCompiler.isCompiled(fileName)) {
+            loadCompiled(fileName);
+        } else {
+            parseFile(fileName);
+        }
+
+        // Without an ELVES section, a single elf empties sacks instantly
+        if (elves == null) {
+            elves = new Elf[]{new Elf(1, fullSacks, 0)};
+        }
+
+        for (Hopper hopper : hoppers) {
+            hopper.setSnapshotGate(gate);
+            hopper.setPresentStore(presentStore);
+        }
+        for (Turntable table : tables) {
+            table.setSnapshotGate(gate);
+            table.setPresentStore(presentStore);
+        }
+        for (Sack sack : sacks) {
+            sack.setPresentStore(presentStore);
+        }
+        for (Elf elf : elves) {
+            elf.setSnapshotGate(gate);
+        }
+    }
+
+    /**
+     * Take a consistent snapshot of the counts of every component, without stopping the machine: the counts are
+     * read as they were when the snapshot began, leaving out presents moved since. Cheap enough to take many
+     * times a second.
+     * @return The snapshot.
+     * @see SnapshotGate
+     */
+    public MachineSnapshot snapshot() {
+        return gate.snapshot(epoch -> new MachineSnapshot(epoch, elapsedTime(), totalPresents, hoppers, belts,
+                tables, sacks));
+    }
 
-        // Create elves
-        elf = new Elf(1, sacks);
+    /**
+     * @return Milliseconds of machine time since the machine started, or its run time once it has stopped.
+     */
+    private long elapsedTime() {
+        return running ? clock.now() - startTime : endTime - startTime;
     }
 
     public void run() throws InterruptedException {
+        MachineMBeans mbeans = registerMBeans();
+        try {
+            runHoppersAndTables();
+        } finally {
+            if (mbeans != null) {
+                mbeans.unregister();
+            }
+        }
+    }
+
+    private void runHoppersAndTables() throws InterruptedException {
         System.out.println("Starting Hoppers and Turntables...");
 
+        // Counted before any Hopper runs, so none can empty before it is counted
+        metrics.setHoppersWithPresents(countHoppersWithPresents());
         startHoppersAndTables();
+        if (elvesFromStart) {
+            System.out.println("*** Elves are emptying the Sacks from the start. ***");
+            startElves();
+        }
 
         long time = 0;
-        long currentTime = 0;
-        startTime = System.currentTimeMillis();
+        startTime = clock.now();
+        running = true;
         System.out.println("*** Machine Started at ***");
 
         while (time < timerLength)
         {
-            // sleep in 10 second bursts
+            // sleep in 10 second bursts, unless the Hoppers run out first
             try
             {
-                sleep(WAIT_INTERVAL);
+                if (endWhenEmpty) {
+                    if (metrics.awaitHoppersEmpty(clock, WAIT_INTERVAL)) {
+                        break;
+                    }
+                } else {
+                    clock.sleep(WAIT_INTERVAL);
+                }
             }
             catch (InterruptedException ex)
             {
                 throw new RuntimeException(ex);
             }
 
-            currentTime = System.currentTimeMillis();
-            time = (currentTime - startTime) / 1000;
+            MachineSnapshot snapshot = snapshot();
+            time = snapshot.getTime() / 1000;
             System.out.println("\nInterim Report @ " + time + "s:");
 
-            System.out.println(Hopper.getTotalPresents() + " presents remaining in hoppers;");
-            System.out.println(Sack.getPresentsCollected() + " presents sorted into sacks.\n");
+            System.out.println(snapshot.getPresentsInHoppers() + " presents remaining in hoppers;");
+            System.out.println(snapshot.getPresentsCollected() + " presents sorted into sacks.\n");
         }
 
-        endTime = System.currentTimeMillis();
+        endTime = clock.now();
 
         System.out.println("*** Input Stopped after " + (endTime - startTime) / 1000 + "s. ***");
         stopHoppers();
+        // Once the hoppers have stopped no more presents are deposited, so the machine cannot fill up again
+        joinHoppers();
 
-        System.out.println("*** Releasing the Elves to empty the Sacks. ***");
-        startElves();
+        if (!elvesFromStart) {
+            System.out.println("*** Releasing the Elves to empty the Sacks. ***");
+            startElves();
+        }
 
-        // Wait until Sack has finished
-        while (!((totalPresents - Hopper.getTotalPresents()) == Sack.getPresentsCollected())) {
-            System.out.println(Sack.getPresentsCollected() + " have reached the Sacks out of " + totalPresents);
-            sleep(SHUTDOWN_WAIT);
+        // Wait until every present deposited has reached a Sack, woken the moment the last one does
+        while (!metrics.isDrained()) {
+            System.out.println(metrics.getPresentsCollected() + " have reached the Sacks out of " + totalPresents);
+            metrics.awaitDrained(clock, SHUTDOWN_WAIT);
         }
 
         stopTurntables();
         stopElves();
 
-        // Wait until Sacks are full or all presents have been deposited
-        joinHoppersAndTables();
+        joinTables();
         joinElves();
-        endTime = System.currentTimeMillis();
+        endTime = clock.now();
+        running = false;
         System.out.println("*** Machine completed shutdown after " + (endTime - startTime) / 1000 + "s. ***");
 
     }
 
+    /**
+     * @return The number of Hoppers with presents to deposit.
+     */
+    private int countHoppersWithPresents() {
+        int count = 0;
+        for (Hopper hopper : hoppers) {
+            if (hopper.count() > 0) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Choose whether input stops as soon as every Hopper is empty, rather than when the timer runs out.
+     * @param endWhenEmpty True to stop input once the last present has been deposited.
+     */
+    public void setEndWhenEmpty(boolean endWhenEmpty) {
+        this.endWhenEmpty = endWhenEmpty;
+    }
+
+    /**
+     * Choose whether the components are published over JMX while the machine runs.
+     * @param managementEnabled True to register an MXBean for every component.
+     * @see MachineMBeans
+     */
+    public void setManagementEnabled(boolean managementEnabled) {
+        this.managementEnabled = managementEnabled;
+    }
+
+    /**
+     * @return The registered beans of the machine's components, or null if they are not to be published.
+     */
+    private MachineMBeans registerMBeans() {
+        if (!managementEnabled) {
+            return null;
+        }
+
+        MachineMBeans mbeans = new MachineMBeans();
+        mbeans.register(metrics, belts, hoppers, sacks, tables);
+        return mbeans;
+    }
+
+    /**
+     * Choose when the Elves start emptying Sacks.
+     * @param elvesFromStart True to start them with the machine, false to wait until input stops.
+     */
+    public void setElvesFromStart(boolean elvesFromStart) {
+        this.elvesFromStart = elvesFromStart;
+    }
+
+    /**
+     * Run the machine faster (or slower) than real time.
+     * Every delay is scaled, and times are reported in machine time, so the report is the same at any scale.
+     * @param scale Real time taken per unit of machine time, e.g. 0.1 runs the machine 10 times faster.
+     * @see MachineClock
+     */
+    public void setTimeScale(double scale) {
+        clock = new MachineClock(scale);
+        for (Hopper hopper : hoppers) {
+            hopper.setClock(clock);
+        }
+        for (Turntable table : tables) {
+            table.setClock(clock);
+        }
+        for (Sack sack : sacks) {
+            sack.setClock(clock);
+        }
+        for (Elf elf : elves) {
+            elf.setClock(clock);
+        }
+    }
+
+    /**
+     * Count the CPU time and memory used by the threads the components run on.
+     * @param threadUsage Receives the usage of each thread as it ends.
+     */
+    public void setThreadUsage(ThreadUsage threadUsage) {
+        this.threadUsage = threadUsage;
+    }
+
+    /**
+     * Choose which kind of thread the components run on.
+     * @param runtime The runtime creating the threads.
+     */
+    public void setComponentRuntime(ComponentRuntime runtime) {
+        this.runtime = runtime;
+        for (Turntable table : tables) {
+            table.setComponentRuntime(runtime);
+        }
+    }
+
+    /**
+     * Set how every Turntable chooses between output ports leading to the same sack.
+     * @param policy The policy to use.
+     */
+    public void setRoutingPolicy(RoutingPolicy policy) {
+        for (Turntable table : tables) {
+            table.setRoutingPolicy(policy);
+        }
+    }
+
+    /**
+     * Set the most presents every Turntable takes off an input belt at once.
+     * @param batch The number of presents, 1 to take one at a time.
+     * @see Turntable#setIntakeBatch(int)
+     */
+    public void setIntakeBatch(int batch) {
+        for (Turntable table : tables) {
+            table.setIntakeBatch(batch);
+        }
+    }
+
+    /**
+     * Set the most presents moving across every Turntable at once.
+     * @param slots The number of presents, 1 to handle one at a time, more to pipeline them.
+     * @see Turntable#setSlots(int)
+     */
+    public void setTurntableSlots(int slots) {
+        for (Turntable table : tables) {
+            table.setSlots(slots);
+        }
+    }
+
+    /**
+     * Run the machine in virtual time instead of real time.
+     * Produces the same report as `run()`, but finishes as soon as the events have been processed.
+     * @see DiscreteEventSimulation
+     */
+    public void simulate() {
+        System.out.println("Simulating Hoppers and Turntables in virtual time...");
+
+        var simulation = new DiscreteEventSimulation(hoppers, sacks, tables, elves, fullSacks, metrics, presentStore,
+                timerLength, totalPresents, WAIT_INTERVAL, SHUTDOWN_WAIT, elvesFromStart, endWhenEmpty);
+
+        long wallStart = System.currentTimeMillis();
+        metrics.setHoppersWithPresents(countHoppersWithPresents());
+        startTime = 0;
+        MachineMBeans mbeans = registerMBeans();
+        try {
+            endTime = simulation.run();
+        } finally {
+            if (mbeans != null) {
+                mbeans.unregister();
+            }
+        }
+        LOGGER.log(Level.INFO, "Simulated " + endTime / 1000 + "s in "
+                + (System.currentTimeMillis() - wallStart) + "ms");
+    }
+
     /**
      * Loop over all hoppers and turntables and start them.
      */
@@ -108,22 +407,39 @@ public class PresentSortingMachine {
         // Start turntables before hoppers since they are going to wait anyway.
 
         // START the turntables!
-        for (Turntable table : tables) {
-            table.start();
+        tableThreads = new Thread[tables.length];
+        for (int i = 0; i < tables.length; ++i) {
+            tableThreads[i] = runtime.newThread(measured(tables[i]), "Turntable " + tables[i].getTurntableId());
+            tableThreads[i].start();
         }
 
         // START the hoppers!
-        for (Hopper hopper : hoppers) {
-            hopper.start();
+        hopperThreads = new Thread[hoppers.length];
+        for (int i = 0; i < hoppers.length; ++i) {
+            hopperThreads[i] = runtime.newThread(measured(hoppers[i]), "Hopper " + hoppers[i].getHopperId());
+            hopperThreads[i].start();
         }
     }
 
     private void startElves() {
-        elf.start();
+        elfThreads = new Thread[elves.length];
+        for (int i = 0; i < elves.length; ++i) {
+            elfThreads[i] = runtime.newThread(measured(elves[i]), "Elf " + elves[i].getElfId());
+            elfThreads[i].start();
+        }
+    }
+
+    /**
+     * @return The component, counting its thread's usage if asked to.
+     */
+    private Runnable measured(Runnable component) {
+        return (threadUsage != null) ? threadUsage.measure(component) : component;
     }
 
     private void stopElves() {
-        elf.interrupt();
+        for (Thread elf : elfThreads) {
+            elf.interrupt();
+        }
     }
 
     /**
@@ -131,7 +447,7 @@ public class PresentSortingMachine {
      */
     private void stopHoppers() {
         // Interrupt the hoppers!
-        for (Hopper hopper : hoppers) {
+        for (Thread hopper : hopperThreads) {
             hopper.interrupt();
         }
     }
@@ -140,79 +456,387 @@ public class PresentSortingMachine {
      * Loop over all turntables and interrupt them.
      */
     private void stopTurntables() {
-        // START the turntables!
-        for (Turntable table : tables) {
+        // STOP the turntables!
+        for (Thread table : tableThreads) {
             table.interrupt();
         }
     }
 
     /**
-     * Loop over all hoppers and turntables and wait for them to stop.
+     * Loop over all hoppers and wait for them to stop.
      */
-    private void joinHoppersAndTables() throws InterruptedException {
+    private void joinHoppers() throws InterruptedException {
         // Wait for the hoppers to stop!
-        for (Hopper hopper : hoppers) {
+        for (Thread hopper : hopperThreads) {
             hopper.join();
         }
+    }
 
+    /**
+     * Loop over all turntables and wait for them to stop.
+     */
+    private void joinTables() throws InterruptedException {
         // Wait for the turntables to stop!
-        for (Turntable table : tables) {
+        for (Thread table : tableThreads) {
             table.join();
         }
     }
 
     private void joinElves() throws InterruptedException {
-        elf.join();
+        for (Thread elf : elfThreads) {
+            elf.join();
+        }
     }
 
     /**
      * Parse a configuration file following a specific format.
+     * Exits with the matching error code if the file cannot be read or is not valid.
      * @param fileName The file name of the config file.
+     * @see ConfigTokenizer
      */
     public void parseFile(String fileName) {
-        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            int itemIndex = 0;
-            int sectionIndex = 1;
-            ParseStage stage = ParseStage.CLEAR;
-            ParserType parserType = ParserType.BELTS;
-
-            while ((line = br.readLine()) != null) {
-                switch(stage) {
-                    case CLEAR:
-                        // Ignore blank lines
-                        if (!line.isBlank()) {
-                            String[] sectionHeader = line.trim().split(" ", 2);
-                            parserType = ParserType.valueOf(sectionHeader[0]);
-                            sectionIndex = (sectionHeader.length > 1) ? Integer.parseInt(sectionHeader[1]) : 1;
-                            stage = ParseStage.COUNT;
-
-                            if (parserType == ParserType.TIMER) {
-                                stage = ParseStage.CLEAR;
-                                timerLength = sectionIndex;
-                                LOGGER.log(Level.INFO, "The machine will run for " + timerLength + "s");
-                            }
-                        }
-                        break;
-                    case COUNT:
-                        setCount(Integer.parseInt(line), parserType, sectionIndex);
-                        stage = ParseStage.CONTENT;
-                        break;
-                    case CONTENT:
-                        if (line.isBlank()) {
-                            stage = ParseStage.CLEAR;
-                            itemIndex = 0;
-                        } else {
-                            parseLine(line, parserType, itemIndex, sectionIndex);
-                            itemIndex++;
-                        }
-                        break;
+        try (ConfigTokenizer config = ConfigTokenizer.open(fileName)) {
+            while (config.skipBlankLines()) {
+                parseSection(config, fileName);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println(ErrorCodes.INPUT_FILE_IO_ERROR.getMsg());
+            System.exit(ErrorCodes.INPUT_FILE_IO_ERROR.getValue());
+        } catch (ConfigParseException e) {
+            System.err.println(e.getMessage());
+            System.exit(e.getErrorCode().getValue());
+        }
+
+        if (routePlanner == null) {
+            completeLayout();
+        }
+        checkLockFreeBelts();
+    }
+
+    /**
+     * Load a scenario compiled by the ScenarioCompiler, constructing the machine straight from the
+     * memory-mapped file without parsing any text.
+     * The scenario was checked when it was compiled, so destinations are not checked to be reachable again.
+     * Exits with the matching error code if the file cannot be read or is not valid.
+     * @param fileName The file name of the compiled scenario.
+     * @see ScenarioCompiler
+     */
+    public void loadCompiled(String fileName) {
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+            if (in.getInt() != ScenarioCompiler.MAGIC || in.getInt() != ScenarioCompiler.VERSION) {
+                exitInvalidCompiled(fileName, "It was compiled by a different version of the machine.");
+            }
+
+            timerLength = in.getInt();
+            belts = new Conveyor[in.getInt()];
+            hoppers = new Hopper[in.getInt()];
+            sacks = new Sack[in.getInt()];
+            tables = new Turntable[in.getInt()];
+            elves = new Elf[in.getInt()];
+            in.getLong();
+
+            for (int i = 0; i < belts.length; ++i) {
+                int id = in.getInt();
+                PresentSlots slots = newSlots(in.getInt());
+                belts[i] = (in.get() == 1) ? new SpscConveyor(id, slots) : new Conveyor(id, slots);
+                for (int destinations = in.getInt(); destinations > 0; --destinations) {
+                    belts[i].addDestination(in.getInt());
+                }
+            }
+
+            int[] presentCounts = new int[hoppers.length];
+            for (int i = 0; i < hoppers.length; ++i) {
+                int id = in.getInt();
+                Conveyor belt = belts[in.getInt()];
+                int capacity = in.getInt();
+                hoppers[i] = new Hopper(id, belt, capacity, newHopperSlots(capacity), in.getInt(), metrics);
+                presentCounts[i] = in.getInt();
+                if (!hoppers[i].canFit(presentCounts[i])) {
+                    exitInvalidCompiled(fileName, "Hopper " + id + " cannot fit " + presentCounts[i] + " presents.");
                 }
             }
-        } catch (IOException e) {
+
+            for (int i = 0; i < sacks.length; ++i) {
+                int id = in.getInt();
+                PresentSlots slots = newSlots(in.getInt());
+                sacks[i] = new Sack(id, slots, getString(in), fullSacks, metrics);
+            }
+
+            for (int i = 0; i < tables.length; ++i) {
+                tables[i] = new Turntable(getString(in));
+                for (int port = 0; port < 4; ++port) {
+                    ConnectionType type = ScenarioCompiler.CONNECTION_TYPES[in.get()];
+                    int index = in.getInt();
+                    if (type == ConnectionType.OutputSack) {
+                        tables[i].addConnection(port, new Connection(type, null, sacks[index]));
+                    } else if (type != null) {
+                        tables[i].addConnection(port, new Connection(type, belts[index], null));
+                    }
+                }
+            }
+
+            for (int i = 0; i < elves.length; ++i) {
+                elves[i] = new Elf(in.getInt(), fullSacks, in.getInt());
+            }
+
+            completeLayout();
+            loadCompiledPresents(fileName, channel, in.position(), presentCounts);
+        } catch (IOException | UncheckedIOException e) {
             System.err.println(ErrorCodes.INPUT_FILE_IO_ERROR.getMsg());
             System.exit(ErrorCodes.INPUT_FILE_IO_ERROR.getValue());
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            exitInvalidCompiled(fileName, "It is truncated or refers to a component which does not exist.");
+        }
+
+        checkLockFreeBelts();
+    }
+
+    /**
+     * Map each Hopper's section of presents, check every present is destined for a Sack, then fill the Hopper
+     * from the section or have it stream from it.
+     * @param position The offset in the file of the first section.
+     * @param presentCounts The number of presents in each Hopper's section.
+     */
+    private void loadCompiledPresents(String fileName, FileChannel channel, long position, int[] presentCounts)
+            throws IOException {
+        for (int i = 0; i < hoppers.length; ++i) {
+            int count = presentCounts[i];
+            if (count == 0) {
+                continue;
+            }
+            if (position + 4L * count > channel.size()) {
+                exitInvalidCompiled(fileName, "It ends before the presents of Hopper " + hoppers[i].getHopperId() + ".");
+            }
+
+            IntBuffer sackIndices = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count).asIntBuffer();
+            position += 4L * count;
+            totalPresents += count;
+
+            // Checked here even when streaming, so a corrupt file fails now rather than part way through the run
+            for (int p = 0; p < count; ++p) {
+                int sackIndex = sackIndices.get(p);
+                if (sackIndex < 0 || sackIndex >= sacks.length) {
+                    exitInvalidCompiled(fileName, "A present is destined for sack index " + sackIndex + ".");
+                }
+            }
+
+            if (presentWindow > 0) {
+                hoppers[i].stream(PresentStream.fromCompiled(sackIndices, presentStore), count);
+            } else {
+                hoppers[i].fill(presentStore, sackIndices);
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void exitInvalidCompiled(String fileName, String detail) {
+        System.err.println(fileName + ": " + ErrorCodes.PARSE_ERROR.getMsg() + " " + detail);
+        System.exit(ErrorCodes.PARSE_ERROR.getValue());
+    }
+
+    /**
+     * Parse a section of the configuration file: a header, the number of items and a line per item.
+     * @param config The configuration, at the header of the section.
+     * @param fileName The file name of the config file.
+     */
+    private void parseSection(ConfigTokenizer config, String fileName) {
+        ParserType parserType = ParserType.values()[config.nextWord(SECTIONS, "section")];
+        int sectionIndex = 1;
+
+        if (parserType == ParserType.TIMER) {
+            timerLength = config.nextInt("timer length");
+            config.endLine();
+            LOGGER.log(Level.INFO, "The machine will run for " + timerLength + "s");
+            return;
+        }
+
+        if (parserType == ParserType.PRESENTS) {
+            // The layout is complete once presents start, plan routes to check them against and name their destinations
+            if (routePlanner == null) {
+                completeLayout();
+            }
+            // A bare header fills the first hopper, as it always has
+            if (config.hasNext()) {
+                sectionIndex = config.nextIndex("hopper", hoppers.length) + 1;
+            }
+        } else if (config.hasNext()) {
+            sectionIndex = config.nextInt("section number");
+        }
+        config.endLine();
+
+        int count = config.nextInt("item count");
+        setCount(count, parserType, sectionIndex, config);
+        config.endLine();
+
+        long sectionStart = config.getOffset();
+        int sectionLine = config.getLine();
+        int itemIndex = 0;
+        while (config.hasNext()) {
+            if (itemIndex == count) {
+                throw config.error(ErrorCodes.ITEM_OUT_OF_RANGE, parserType + " lists more than " + count + " items.");
+            }
+            parseLine(config, parserType, itemIndex, sectionIndex);
+            config.endLine();
+            itemIndex++;
         }
+        if (itemIndex < count) {
+            throw config.error(ErrorCodes.PARSE_ERROR, parserType + " lists " + itemIndex + " of its " + count
+                    + " items.");
+        }
+
+        endSection(fileName, parserType, sectionIndex, sectionStart, sectionLine, itemIndex);
+    }
+
+    private static ConfigTokenizer.Vocabulary sectionNames() {
+        String[] names = new String[ParserType.values().length];
+        for (ParserType type : ParserType.values()) {
+            names[type.ordinal()] = type.name();
+        }
+        return new ConfigTokenizer.Vocabulary(names);
+    }
+
+    /**
+     * Create the slots for a belt, hopper or sack buffer.
+     * @param capacity The number of slots.
+     * @return Slots holding either Present objects or their handles.
+     */
+    private PresentSlots newSlots(int capacity) {
+        return compactBuffers ? PresentSlots.ofHandles(capacity, presentStore)
+                : PresentSlots.ofObjects(capacity, presentStore);
+    }
+
+    /**
+     * Create the slots for a hopper, which only needs room for a window of presents when streaming.
+     * @param capacity The capacity of the hopper.
+     * @return Slots holding either Present objects or their handles.
+     */
+    private PresentSlots newHopperSlots(int capacity) {
+        return newSlots((presentWindow > 0) ? Math.min(capacity, presentWindow) : capacity);
+    }
+
+    /**
+     * Finish a section of the configuration file.
+     * When streaming, a Hopper is given its section of presents once every line has been checked.
+     * @param sectionStart The offset in the file of the section's content.
+     * @param sectionLine The line number of the section's content.
+     * @param itemCount The number of items in the section.
+     */
+    private void endSection(String fileName, ParserType parserType, int sectionIndex, long sectionStart,
+                            int sectionLine, int itemCount) {
+        if (parserType == ParserType.PRESENTS && presentWindow > 0 && itemCount > 0) {
+            var stream = PresentStream.fromConfig(fileName, sectionStart, sectionLine, itemCount, ageRanges,
+                    presentStore);
+            hoppers[sectionIndex - 1].stream(stream, itemCount);
+        }
+    }
+
+    /**
+     * Plan the routes through the turntables and fill in their routing tables,
+     * then give the store of presents the Sacks they are destined for.
+     * @see RoutePlanner
+     * @see PresentStore
+     */
+    private void completeLayout() {
+        routePlanner = new RoutePlanner(belts, sacks, tables);
+        routePlanner.plan();
+
+        String[] destinations = new String[sacks.length];
+        for (int i = 0; i < sacks.length; ++i) {
+            destinations[i] = sacks[i].getAgeRange();
+        }
+        presentStore.setDestinations(destinations);
+        ageRanges = new ConfigTokenizer.Vocabulary(destinations);
+    }
+
+    /**
+     * Assert every lock-free belt has a single producer and a single consumer.
+     * Exits with the matching error code if one does not.
+     * @see SpscConveyor
+     */
+    private void checkLockFreeBelts() {
+        HashMap<Conveyor, Integer> producers = new HashMap<>();
+        HashMap<Conveyor, Integer> consumers = new HashMap<>();
+
+        for (Hopper hopper : hoppers) {
+            producers.merge(hopper.getBelt(), 1, Integer::sum);
+        }
+
+        for (Turntable table : tables) {
+            for (int port = 0; port < 4; ++port) {
+                Connection conn = table.getConnection(port);
+                if (conn != null && conn.connType == ConnectionType.InputBelt) {
+                    consumers.merge(conn.belt, 1, Integer::sum);
+                } else if (conn != null && conn.connType == ConnectionType.OutputBelt) {
+                    producers.merge(conn.belt, 1, Integer::sum);
+                }
+            }
+        }
+
+        for (Conveyor belt : belts) {
+            if (belt instanceof SpscConveyor
+                    && (producers.getOrDefault(belt, 0) > 1 || consumers.getOrDefault(belt, 0) > 1)) {
+                System.err.println(ErrorCodes.SHARED_SPSC_BELT.getMsg() + " (belt " + belt.getConveyorId() + ")");
+                System.exit(ErrorCodes.SHARED_SPSC_BELT.getValue());
+            }
+        }
+    }
+
+    Conveyor[] getBelts() {
+        return belts;
+    }
+
+    Hopper[] getHoppers() {
+        return hoppers;
+    }
+
+    Sack[] getSacks() {
+        return sacks;
+    }
+
+    Turntable[] getTables() {
+        return tables;
+    }
+
+    Elf[] getElves() {
+        return elves;
+    }
+
+    PresentStore getPresentStore() {
+        return presentStore;
+    }
+
+    /**
+     * @return The number of seconds input runs for.
+     */
+    int getTimerLength() {
+        return timerLength;
+    }
+
+    /**
+     * @return The counts and latencies of presents moving through the machine.
+     */
+    public MachineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The number of presents loaded into the Hoppers.
+     */
+    public int getTotalPresents() {
+        return totalPresents;
+    }
+
+    /**
+     * @return How long the last run took, in milliseconds of machine time.
+     */
+    public long getRunTime() {
+        return endTime - startTime;
     }
 
     /**
@@ -229,9 +853,10 @@ public class PresentSortingMachine {
      * @param count The integer parsed from the line.
      * @param parserType The type of Object being parsed.
      * @param sectionIndex The index of the section.
+     * @param config The configuration, to report errors at the count.
      * @see ParserType
      */
-    private void setCount(int count, ParserType parserType, int sectionIndex) {
+    private void setCount(int count, ParserType parserType, int sectionIndex, ConfigTokenizer config) {
         switch (parserType) {
             case BELTS:
                 belts = new Conveyor[count];
@@ -245,10 +870,14 @@ public class PresentSortingMachine {
             case TURNTABLES:
                 tables = new Turntable[count];
                 break;
+            case ELVES:
+                elves = new Elf[count];
+                break;
             case PRESENTS:
                 // Assert it can fit in the hopper
                 if (!hoppers[sectionIndex - 1].canFit(count)) {
-                    throw new IndexOutOfBoundsException(ErrorCodes.HOPPER_AT_CAPACITY.getMsg());
+                    throw config.error(ErrorCodes.HOPPER_AT_CAPACITY, "Hopper " + sectionIndex
+                            + " cannot fit " + count + " presents.");
                 }
                 break;
         }
@@ -256,66 +885,46 @@ public class PresentSortingMachine {
 
     /**
      * Decides what to do with a line of the configuration file.
-     * @param line The line from the configuration file.
+     * @param config The configuration, at a line of the section.
      * @param parserType The type of Object being parsed.
      * @param itemIndex The number of line inside this section.
      * @param sectionIndex The section number.
      * @see ParserType
      */
-    private void parseLine(String line, ParserType parserType, int itemIndex, int sectionIndex) {
+    private void parseLine(ConfigTokenizer config, ParserType parserType, int itemIndex, int sectionIndex) {
         switch (parserType) {
             case BELTS:
-                if (belts.length < itemIndex) {throw new IndexOutOfBoundsException(ErrorCodes.ITEM_OUT_OF_RANGE.getMsg());}
-                belts[itemIndex] = Conveyor.parseString(line);
+                belts[itemIndex] = Conveyor.parse(config, this::newSlots);
                 break;
             case HOPPERS:
-                if (hoppers.length < itemIndex) {throw new IndexOutOfBoundsException(ErrorCodes.ITEM_OUT_OF_RANGE.getMsg());}
-                hoppers[itemIndex] = Hopper.parseString(line, belts);
+                hoppers[itemIndex] = Hopper.parse(config, belts, metrics, this::newHopperSlots);
                 break;
             case SACKS:
-                if (sacks.length < itemIndex) {throw new IndexOutOfBoundsException(ErrorCodes.ITEM_OUT_OF_RANGE.getMsg());}
-                sacks[itemIndex] = Sack.parseString(line);
-                Turntable.addDestination(sacks[itemIndex].getAgeRange(), sacks[itemIndex].getSackId());
+                sacks[itemIndex] = Sack.parse(config, fullSacks, metrics, this::newSlots);
                 break;
             case TURNTABLES:
-                if (tables.length < itemIndex) {throw new IndexOutOfBoundsException(ErrorCodes.ITEM_OUT_OF_RANGE.getMsg());}
-                tables[itemIndex] = Turntable.parseString(line, belts, sacks);
+                tables[itemIndex] = Turntable.parse(config, belts, sacks);
+                break;
+            case ELVES:
+                elves[itemIndex] = Elf.parse(config, fullSacks);
                 break;
             case PRESENTS:
-                hoppers[sectionIndex - 1].fill(new Present(line));
+                int sackIndex = config.nextWord(ageRanges, "age range", ErrorCodes.UNKNOWN_DESTINATION);
+                Hopper hopper = hoppers[sectionIndex - 1];
+                if (!routePlanner.canReach(hopper.getBelt(), sackIndex)) {
+                    throw config.error(ErrorCodes.UNREACHABLE_DESTINATION,
+                            "(" + sacks[sackIndex].getAgeRange() + " from Hopper " + hopper.getHopperId() + ")");
+                }
+
+                // Streamed presents are only checked now, and read again as the Hopper needs them
+                if (presentWindow == 0) {
+                    hopper.fill(presentStore.newPresent(sackIndex));
+                }
                 ++totalPresents;
                 break;
         }
     }
 
-    /**
-     * Get count of all gifts held in belts.
-     * Since other threads are not running getting the lock is not problematic.
-     * @return The number of gifts.
-     */
-    private int getConveyorCount() {
-        int count = 0;
-        for (Conveyor conveyor : belts) {
-            count += conveyor.getCount();
-        }
-
-        return count;
-    }
-
-    /**
-     * Get count of all gifts held in Turntables.
-     * Since other threads are not running getting the lock is not problematic.
-     * @return The number of gifts.
-     */
-    private int getTurntableCount() {
-        int count = 0;
-        for (Turntable turntable : tables) {
-            count += turntable.count();
-        }
-
-        return count;
-    }
-
     /**
      * Prints a final report of the machine activity.
      */
@@ -332,18 +941,47 @@ public class PresentSortingMachine {
 
         System.out.println();
 
-        // Sum gifts in Hoppers, Conveyor belts, and Turntables
-        int giftsOnMachine = Hopper.getTotalPresents() + getConveyorCount() + getTurntableCount();
-        int giftsInSacks = Sack.getPresentsCollected();
+        for (Turntable table : tables) {
+            System.out.print("Turntable " + table.getTurntableId() + " was held up by full sacks " + table.getSackBlockedCount());
+            System.out.println(" times for " + table.getSackBlockedTime() + "s.");
+        }
+
+        printLatencies();
+        System.out.println();
+
+        // Sum gifts in Hoppers, Conveyor belts, and Turntables, all counted at the same instant
+        MachineSnapshot snapshot = snapshot();
+        int giftsOnMachine = snapshot.getPresentsOnMachine();
+        int giftsInSacks = snapshot.getPresentsCollected();
 
-        int deposited = totalPresents - Hopper.getTotalPresents();
+        int deposited = totalPresents - snapshot.getPresentsInHoppers();
 
         System.out.println("\nOut of " + deposited + " gifts deposited, and " + totalPresents + " gifts in total:");
         System.out.print(giftsOnMachine + " are still on the machine (incl. Hoppers), and ");
         System.out.println(giftsInSacks + " made it into the sacks");
 
-        int missing = totalPresents - giftsInSacks - giftsOnMachine;
-        System.out.println(missing + " gifts went missing.");
+        System.out.println(snapshot.getPresentsMissing() + " gifts went missing.");
+
+    }
+
+    /**
+     * Print the percentiles of the time presents spent at each Turntable and took to reach each Sack,
+     * in milliseconds of machine time, to show where presents are held up.
+     */
+    private void printLatencies() {
+        System.out.println("\nLatencies (ms)                          Presents       p50       p90       p99       max");
+        for (Turntable table : tables) {
+            printLatency("Turntable " + table.getTurntableId() + " input wait", table.getWaitLatency());
+            printLatency("Turntable " + table.getTurntableId() + " transit", table.getTransitLatency());
+        }
+        for (Sack sack : sacks) {
+            printLatency("Sack " + sack.getSackId() + " end-to-end", sack.getEndToEndLatency());
+        }
+        printLatency("All presents end-to-end", metrics.getEndToEndLatency());
+    }
 
+    private static void printLatency(String name, LatencyHistogram latency) {
+        System.out.printf("%-38s %9d %9d %9d %9d %9d%n", name, latency.getCount(), latency.getPercentile(50),
+                latency.getPercentile(90), latency.getPercentile(99), latency.getMax());
     }
 }
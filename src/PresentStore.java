@@ -0,0 +1,307 @@
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the state of every present of a machine as columns of primitives, indexed by an int handle.
+ * A present is then just its handle: no object header, no copy of its age range, and nothing for the
+ * garbage collector to trace.
+ * Columns are allocated in fixed-size chunks, so handles can be created while the machine is running
+ * without copying (or racing with readers of) the columns already in use.
+ * When presents are streamed into the Hoppers, handles can be recycled once their present reaches a
+ * Sack, so the columns only ever hold the presents currently moving through the machine.
+ * @author Jacob
+ * @see Present
+ */
+@ThreadSafe
+public class PresentStore {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** The age range collected by each Sack, indexed as in the presents' sack indices. */
+    private volatile String[] destinations = new String[0];
+
+    /** Hands out handles which have never been used. */
+    private final AtomicInteger nextHandle = new AtomicInteger();
+    /** Hands out the presents' IDs, which stay unique even when handles are recycled. */
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /** True if released handles are handed out again. */
+    private volatile boolean recycling = false;
+
+    /** True if the store keeps a single view of each present, rather than creating one whenever asked. */
+    private volatile boolean cachingViews = false;
+
+    /** Handles released by presents which have reached their Sack. */
+    @GuardedBy("this")
+    private int[] freeHandles = new int[0];
+    @GuardedBy("this")
+    private int freeCount = 0;
+
+    /** The ID of each present. */
+    @GuardedBy("this")
+    private volatile int[][] ids = new int[0][];
+
+    /** The index of the Sack each present is destined for. */
+    @GuardedBy("this")
+    private volatile int[][] sackIndices = new int[0][];
+
+    /** When each present was deposited by its Hopper, in milliseconds on the machine's clock. */
+    @GuardedBy("this")
+    private volatile long[][] depositTimes = new long[0][];
+
+    /** When each present reached the stage of the machine it is at, in milliseconds on the machine's clock. */
+    @GuardedBy("this")
+    private volatile long[][] arrivalTimes = new long[0][];
+
+    /** The view of each present, created the first time it is asked for, when caching views. */
+    @GuardedBy("this")
+    private volatile Present[][] views = new Present[0][];
+
+    /**
+     * Set the age ranges of the Sacks, once they are known.
+     * @param destinations The age range collected by each Sack, indexed as in the presents' sack indices.
+     */
+    public void setDestinations(String[] destinations) {
+        this.destinations = destinations;
+    }
+
+    /**
+     * Choose whether released handles are handed out again.
+     * Only safe when nothing reads a present after it has reached its Sack.
+     * @param recycling True to recycle handles.
+     */
+    public void setRecycling(boolean recycling) {
+        this.recycling = recycling;
+    }
+
+    /**
+     * Choose whether to keep a single view of each present, so a present can be placed in slots holding
+     * Present objects by its handle without creating an object each time.
+     * Must be chosen before any present is added.
+     * @param cachingViews True to keep the views.
+     */
+    public void setCachingViews(boolean cachingViews) {
+        this.cachingViews = cachingViews;
+    }
+
+    /**
+     * Add a present to the store.
+     * @param sackIndex The index of the Sack the present is destined for.
+     * @return The new present.
+     */
+    public Present newPresent(int sackIndex) {
+        return present(newHandle(sackIndex));
+    }
+
+    /**
+     * Add a present to the store, without creating a view of it.
+     * @param sackIndex The index of the Sack the present is destined for.
+     * @return The handle of the new present.
+     */
+    public int newHandle(int sackIndex) {
+        int handle = allocate();
+        int chunk = handle >>> CHUNK_BITS;
+        if (chunk >= ids.length) {
+            grow(chunk);
+        }
+
+        ids[chunk][handle & CHUNK_MASK] = nextId.getAndIncrement();
+        sackIndices[chunk][handle & CHUNK_MASK] = sackIndex;
+        return handle;
+    }
+
+    /**
+     * Add a block of presents to the store, copying their sack indices in bulk.
+     * Released handles are not handed out here, so the block's handles are consecutive.
+     * @param sackIndices The index of the Sack each present is destined for, from the current position
+     *                    to the limit, which are all read.
+     * @return The handle of the first present, the others follow it.
+     */
+    public int newPresents(IntBuffer sackIndices) {
+        int count = sackIndices.remaining();
+        int first = nextHandle.getAndAdd(count);
+        if (first < 0 || first + count < 0) {
+            throw new IllegalStateException("Too many presents for one store.");
+        }
+        int firstId = nextId.getAndAdd(count);
+        if (count == 0) {
+            return first;
+        }
+
+        int lastChunk = (first + count - 1) >>> CHUNK_BITS;
+        if (lastChunk >= ids.length) {
+            grow(lastChunk);
+        }
+
+        // Copy a chunk at a time, so the sack indices go straight from the buffer into the column
+        for (int handle = first, end = first + count; handle < end; ) {
+            int chunk = handle >>> CHUNK_BITS;
+            int offset = handle & CHUNK_MASK;
+            int length = Math.min(end - handle, CHUNK_SIZE - offset);
+
+            sackIndices.get(this.sackIndices[chunk], offset, length);
+            int[] chunkIds = ids[chunk];
+            for (int i = 0; i < length; ++i) {
+                chunkIds[offset + i] = firstId + (handle - first) + i;
+            }
+            handle += length;
+        }
+        return first;
+    }
+
+    /**
+     * @param handle The handle of a present in the store.
+     * @return A view of the present, the same one every time when caching views.
+     */
+    public Present present(int handle) {
+        if (!cachingViews) {
+            return new Present(this, handle);
+        }
+
+        // A view only holds final fields, so at worst two threads each create one and either is correct
+        Present[] chunk = views[handle >>> CHUNK_BITS];
+        Present view = chunk[handle & CHUNK_MASK];
+        if (view == null) {
+            view = new Present(this, handle);
+            chunk[handle & CHUNK_MASK] = view;
+        }
+        return view;
+    }
+
+    /**
+     * Let a present's handle be reused, if recycling.
+     * @param handle The handle of a present which has reached its Sack.
+     */
+    public void release(int handle) {
+        if (!recycling) {
+            return;
+        }
+
+        synchronized (this) {
+            if (freeCount == freeHandles.length) {
+                freeHandles = Arrays.copyOf(freeHandles, Math.max(16, freeCount * 2));
+            }
+            freeHandles[freeCount++] = handle;
+        }
+    }
+
+    /**
+     * @return A released handle if there is one, or else a new one.
+     */
+    private int allocate() {
+        if (recycling) {
+            synchronized (this) {
+                if (freeCount > 0) {
+                    return freeHandles[--freeCount];
+                }
+            }
+        }
+
+        int handle = nextHandle.getAndIncrement();
+        if (handle < 0) {
+            throw new IllegalStateException("Too many presents for one store.");
+        }
+        return handle;
+    }
+
+    /**
+     * Make sure a chunk exists, adding chunks to every column as needed.
+     * The chunk arrays are replaced rather than resized, so readers never see a partly copied column.
+     */
+    synchronized private void grow(int chunk) {
+        int length = ids.length;
+        if (chunk < length) {
+            return;
+        }
+
+        int[][] newIds = Arrays.copyOf(ids, chunk + 1);
+        int[][] newSackIndices = Arrays.copyOf(sackIndices, chunk + 1);
+        long[][] newDepositTimes = Arrays.copyOf(depositTimes, chunk + 1);
+        long[][] newArrivalTimes = Arrays.copyOf(arrivalTimes, chunk + 1);
+        Present[][] newViews = Arrays.copyOf(views, chunk + 1);
+        for (int i = length; i <= chunk; ++i) {
+            newIds[i] = new int[CHUNK_SIZE];
+            newSackIndices[i] = new int[CHUNK_SIZE];
+            newDepositTimes[i] = new long[CHUNK_SIZE];
+            newArrivalTimes[i] = new long[CHUNK_SIZE];
+            newViews[i] = cachingViews ? new Present[CHUNK_SIZE] : null;
+        }
+
+        // Publish the IDs last, any handle within the ID column has a slot in every other column
+        depositTimes = newDepositTimes;
+        arrivalTimes = newArrivalTimes;
+        views = newViews;
+        sackIndices = newSackIndices;
+        ids = newIds;
+    }
+
+    /**
+     * @return The number of presents created so far.
+     */
+    public int size() {
+        return nextId.get();
+    }
+
+    /**
+     * @param handle The handle of a present.
+     * @return The ID of the present.
+     */
+    public int getId(int handle) {
+        return ids[handle >>> CHUNK_BITS][handle & CHUNK_MASK];
+    }
+
+    /**
+     * @param handle The handle of a present.
+     * @return The index of the Sack the present is destined for.
+     */
+    public int getSackIndex(int handle) {
+        return sackIndices[handle >>> CHUNK_BITS][handle & CHUNK_MASK];
+    }
+
+    /**
+     * @param handle The handle of a present.
+     * @return The target age range of the present.
+     */
+    public String getDestination(int handle) {
+        return destinations[getSackIndex(handle)];
+    }
+
+    /**
+     * Record when a present was deposited by its Hopper.
+     * @param handle The handle of the present.
+     * @param time The time in milliseconds on the machine's clock.
+     */
+    public void setDepositTime(int handle, long time) {
+        depositTimes[handle >>> CHUNK_BITS][handle & CHUNK_MASK] = time;
+    }
+
+    /**
+     * @param handle The handle of a present.
+     * @return When the present was deposited by its Hopper, in milliseconds on the machine's clock.
+     */
+    public long getDepositTime(int handle) {
+        return depositTimes[handle >>> CHUNK_BITS][handle & CHUNK_MASK];
+    }
+
+    /**
+     * Record when a present reached a stage of the machine (a belt, or a Turntable).
+     * @param handle The handle of the present.
+     * @param time The time in milliseconds on the machine's clock.
+     */
+    public void setArrivalTime(int handle, long time) {
+        arrivalTimes[handle >>> CHUNK_BITS][handle & CHUNK_MASK] = time;
+    }
+
+    /**
+     * @param handle The handle of a present.
+     * @return When the present reached the stage of the machine it is at, in milliseconds on the machine's clock.
+     */
+    public long getArrivalTime(int handle) {
+        return arrivalTimes[handle >>> CHUNK_BITS][handle & CHUNK_MASK];
+    }
+}
@@ -0,0 +1,44 @@
+import java.nio.IntBuffer;
+
+/**
+ * The presents of a single Hopper, read a window at a time as the Hopper deposits them,
+ * so they do not all have to be held in memory before the machine starts.
+ * @author Jacob
+ * @see Hopper
+ */
+public interface PresentStream {
+    /**
+     * Read the next presents into a window of slots.
+     * @param slots The slots.
+     * @param firstSlot The slot to place the first present in, later ones wrap around the slots.
+     * @param presents The number of presents to read.
+     * @exception IllegalStateException When the stream has fewer presents left.
+     */
+    void read(PresentSlots slots, int firstSlot, int presents);
+
+    /**
+     * Stream presents from a PRESENTS section of a configuration file, which has already been checked.
+     * @param fileName The configuration file.
+     * @param offset The offset in the file of the first present.
+     * @param line The line number of the first present.
+     * @param count The number of presents in the section.
+     * @param ageRanges Lookup of age range -> index of the Sack collecting it.
+     * @param store The store to add the presents to.
+     * @return The stream.
+     */
+    static PresentStream fromConfig(String fileName, long offset, int line, int count,
+                                    ConfigTokenizer.Vocabulary ageRanges, PresentStore store) {
+        return new ConfigPresentStream(fileName, offset, line, count, ageRanges, store);
+    }
+
+    /**
+     * Stream presents from the sack indices of a compiled scenario.
+     * @param sackIndices The index of the Sack each present is destined for, from the current position on.
+     * @param store The store to add the presents to.
+     * @return The stream.
+     * @see ScenarioCompiler
+     */
+    static PresentStream fromCompiled(IntBuffer sackIndices, PresentStore store) {
+        return new CompiledPresentStream(sackIndices, store);
+    }
+}
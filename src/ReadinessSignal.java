@@ -0,0 +1,55 @@
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets a consumer sleep until one of the Conveyors it takes from becomes non-empty.
+ * A Conveyor raises the signal every time a Present is put on it; the consumer clears it on waking,
+ * so a Present put while the consumer is still looking over its inputs is never missed.
+ * Raising a signal that is already raised does not take the lock.
+ * The consumer parks on a Condition rather than a monitor, so it never pins a virtual thread to its carrier.
+ * @author Jacob
+ */
+@ThreadSafe
+public class ReadinessSignal {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition raisedCondition = lock.newCondition();
+
+    /** Written under the lock, but read without it when raising. */
+    @GuardedBy("lock")
+    private volatile boolean raised = false;
+
+    /**
+     * Announce that an input has become non-empty.
+     */
+    public void raise() {
+        if (raised) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            raised = true;
+            raisedCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the signal is raised, then clear it.
+     */
+    public void await() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!raised) {
+                raisedCondition.await();
+            }
+            raised = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,350 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plans the route of every present through the machine from the layout of belts, turntables and sacks,
+ * instead of relying on the destinations written by hand for each belt.
+ * For every sack, the quickest way (by turntable move and rotation time) to reach it from each belt is
+ * found, and each turntable is given a routing table sending presents down the quickest path.
+ * Every other output port which brings a present strictly closer to its sack is kept as a candidate,
+ * so turntables can spread presents over redundant paths without ever routing them in a loop.
+ * @author Jacob
+ * @see Turntable
+ */
+public class RoutePlanner {
+    static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private final Conveyor[] belts;
+    private final Sack[] sacks;
+    private final Turntable[] tables;
+
+    private final IdentityHashMap<Conveyor, Integer> beltIndices = new IdentityHashMap<>();
+
+    /** The turntable consuming each belt, and the port it is connected to. */
+    private final Turntable[] consumers;
+    private final int[] consumerPorts;
+
+    /** The turntables (and their ports) placing presents onto each belt. */
+    private final List<List<Producer>> producers = new ArrayList<>();
+
+    /** The sacks which can be reached from each belt. */
+    private final BitSet[] reachable;
+
+    /** For each belt, the output ports of its consumer used by at least one route. */
+    private final boolean[][] usedPorts;
+
+    private static final Logger LOGGER = Logger.getLogger(RoutePlanner.class.getName());
+
+    synchronized static public void setLoggerLevel(Level level) {
+        LOGGER.setLevel(level);
+    }
+
+    /**
+     * A turntable output port leading onto a belt.
+     */
+    private static class Producer {
+        final Turntable table;
+        final int port;
+
+        Producer(Turntable table, int port) {
+            this.table = table;
+            this.port = port;
+        }
+    }
+
+    /**
+     * Create a planner for a machine layout.
+     * @param belts Every Conveyor of the machine.
+     * @param sacks Every Sack of the machine, indexed as in the presents' sack indices.
+     * @param tables Every Turntable of the machine, with all of their connections added.
+     */
+    public RoutePlanner(Conveyor[] belts, Sack[] sacks, Turntable[] tables) {
+        this.belts = belts;
+        this.sacks = sacks;
+        this.tables = tables;
+
+        consumers = new Turntable[belts.length];
+        consumerPorts = new int[belts.length];
+        reachable = new BitSet[belts.length];
+        usedPorts = new boolean[belts.length][4];
+
+        for (int i = 0; i < belts.length; ++i) {
+            beltIndices.put(belts[i], i);
+            producers.add(new ArrayList<>());
+            reachable[i] = new BitSet(sacks.length);
+        }
+
+        for (Turntable table : tables) {
+            for (int port = 0; port < 4; ++port) {
+                Connection conn = table.getConnection(port);
+                if (conn == null || conn.belt == null) {
+                    continue;
+                }
+
+                int belt = beltIndices.get(conn.belt);
+                if (conn.connType == ConnectionType.InputBelt) {
+                    consumers[belt] = table;
+                    consumerPorts[belt] = port;
+                } else {
+                    producers.get(belt).add(new Producer(table, port));
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the quickest route from every belt to every sack, and fill in the routing table of every
+     * turntable accordingly.
+     */
+    public void plan() {
+        IdentityHashMap<Turntable, byte[][]> routes = new IdentityHashMap<>();
+        IdentityHashMap<Turntable, byte[][]> candidates = new IdentityHashMap<>();
+        for (Turntable table : tables) {
+            byte[][] tableRoutes = new byte[4][];
+            byte[][] tableCandidates = new byte[4][];
+            for (int port = 0; port < 4; ++port) {
+                Connection conn = table.getConnection(port);
+                if (conn != null && conn.connType == ConnectionType.InputBelt) {
+                    tableRoutes[port] = new byte[sacks.length];
+                    tableCandidates[port] = new byte[sacks.length];
+                    Arrays.fill(tableRoutes[port], (byte) Turntable.NO_ROUTE);
+                }
+            }
+            routes.put(table, tableRoutes);
+            candidates.put(table, tableCandidates);
+        }
+
+        for (int sack = 0; sack < sacks.length; ++sack) {
+            long[] distances = distancesTo(sack);
+
+            for (int belt = 0; belt < belts.length; ++belt) {
+                Turntable table = consumers[belt];
+                if (distances[belt] == UNREACHABLE || table == null) {
+                    continue;
+                }
+
+                reachable[belt].set(sack);
+                int inputPort = consumerPorts[belt];
+                int outputPort = bestPort(table, inputPort, sack, distances);
+                routes.get(table)[inputPort][sack] = (byte) outputPort;
+
+                int ports = candidatePorts(table, inputPort, sack, distances, distances[belt]);
+                candidates.get(table)[inputPort][sack] = (byte) ports;
+                for (int port = 0; port < 4; ++port) {
+                    if ((ports & (1 << port)) != 0) {
+                        usedPorts[belt][port] = true;
+                    }
+                }
+            }
+        }
+
+        for (Turntable table : tables) {
+            table.setRoutes(routes.get(table), candidates.get(table));
+        }
+
+        checkDestinations();
+        checkLoops();
+    }
+
+    /**
+     * @param belt A Conveyor of the machine.
+     * @param sackIndex The index of a Sack.
+     * @return True if a present on the belt can reach the Sack.
+     */
+    public boolean canReach(Conveyor belt, int sackIndex) {
+        return reachable[beltIndices.get(belt)].get(sackIndex);
+    }
+
+    /**
+     * The time it takes a turntable to pass a present from an input port to a destination.
+     * @param distances The time to reach the sack from each belt.
+     * @return The time, or UNREACHABLE if the output port does not lead to the sack.
+     */
+    private long costVia(Turntable table, int inputPort, int outputPort, int sack, long[] distances) {
+        Connection conn = table.getConnection(outputPort);
+        if (conn == null || conn.connType == ConnectionType.InputBelt) {
+            return UNREACHABLE;
+        }
+
+        long onward;
+        if (conn.connType == ConnectionType.OutputSack) {
+            onward = (conn.sack == sacks[sack]) ? 0 : UNREACHABLE;
+        } else {
+            onward = distances[beltIndices.get(conn.belt)];
+        }
+
+        return (onward == UNREACHABLE) ? UNREACHABLE : onward + Turntable.transferTime(inputPort, outputPort);
+    }
+
+    /**
+     * @return The output port on the quickest path to the sack (the first, if several are as quick).
+     */
+    private int bestPort(Turntable table, int inputPort, int sack, long[] distances) {
+        int best = Turntable.NO_ROUTE;
+        long bestCost = UNREACHABLE;
+
+        for (int port = 0; port < 4; ++port) {
+            long cost = costVia(table, inputPort, port, sack, distances);
+            if (cost < bestCost) {
+                best = port;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find every output port leaving the present strictly closer to the sack than it was on the input belt.
+     * Since each hop reduces the remaining time, presents can never be sent around in a loop.
+     * @param remaining The time to reach the sack from the input belt.
+     * @return A bit mask of the ports.
+     */
+    private int candidatePorts(Turntable table, int inputPort, int sack, long[] distances, long remaining) {
+        int ports = 0;
+
+        for (int port = 0; port < 4; ++port) {
+            long cost = costVia(table, inputPort, port, sack, distances);
+            if (cost != UNREACHABLE && cost - Turntable.transferTime(inputPort, port) < remaining) {
+                ports |= 1 << port;
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * Work backwards from a sack to find how long it takes to reach it from each belt (Dijkstra).
+     * @param sack The index of the sack.
+     * @return The time to reach the sack from each belt, or UNREACHABLE.
+     */
+    private long[] distancesTo(int sack) {
+        long[] distances = new long[belts.length];
+        Arrays.fill(distances, UNREACHABLE);
+        // Entries are {distance, belt}
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+
+        // Belts leading into a turntable which outputs into the sack
+        for (int belt = 0; belt < belts.length; ++belt) {
+            Turntable table = consumers[belt];
+            if (table != null) {
+                for (int port = 0; port < 4; ++port) {
+                    Connection conn = table.getConnection(port);
+                    if (conn != null && conn.connType == ConnectionType.OutputSack && conn.sack == sacks[sack]) {
+                        relax(distances, queue, belt, Turntable.transferTime(consumerPorts[belt], port));
+                    }
+                }
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            long[] entry = queue.poll();
+            int belt = (int) entry[1];
+            if (entry[0] > distances[belt]) {
+                continue;
+            }
+
+            // Any belt leading into a turntable which outputs onto this belt
+            for (Producer producer : producers.get(belt)) {
+                for (int port = 0; port < 4; ++port) {
+                    Connection conn = producer.table.getConnection(port);
+                    if (conn != null && conn.connType == ConnectionType.InputBelt) {
+                        long cost = entry[0] + Turntable.transferTime(port, producer.port);
+                        relax(distances, queue, beltIndices.get(conn.belt), cost);
+                    }
+                }
+            }
+        }
+
+        return distances;
+    }
+
+    private static void relax(long[] distances, PriorityQueue<long[]> queue, int belt, long distance) {
+        if (distance < distances[belt]) {
+            distances[belt] = distance;
+            queue.add(new long[]{distance, belt});
+        }
+    }
+
+    /**
+     * Compare the destinations written in the configuration against the planned routes.
+     */
+    private void checkDestinations() {
+        for (int belt = 0; belt < belts.length; ++belt) {
+            for (int sackId : belts[belt].getDestinations()) {
+                int sack = 0;
+                while (sack < sacks.length && sacks[sack].getSackId() != sackId) {
+                    ++sack;
+                }
+
+                if (sack == sacks.length || !reachable[belt].get(sack)) {
+                    LOGGER.log(Level.WARNING, "Belt " + belts[belt].getConveyorId() + " lists destination "
+                            + sackId + " but cannot reach it.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Warn about belts which presents are routed around in a loop.
+     * Since belts have a fixed size, a full loop will deadlock the turntables on it.
+     */
+    private void checkLoops() {
+        // 0: not visited, 1: on the current path, 2: done
+        int[] state = new int[belts.length];
+
+        for (int start = 0; start < belts.length; ++start) {
+            if (state[start] != 0) {
+                continue;
+            }
+
+            // Iterative depth-first search, the stack holds {belt, next port to explore}
+            ArrayList<int[]> stack = new ArrayList<>();
+            stack.add(new int[]{start, 0});
+            state[start] = 1;
+
+            while (!stack.isEmpty()) {
+                int[] top = stack.get(stack.size() - 1);
+                int next = nextRoutedBelt(top);
+
+                if (next < 0) {
+                    state[top[0]] = 2;
+                    stack.remove(stack.size() - 1);
+                } else if (state[next] == 1) {
+                    StringBuilder loop = new StringBuilder();
+                    for (int i = stack.size() - 1; i >= 0 && stack.get(i)[0] != next; --i) {
+                        loop.insert(0, belts[stack.get(i)[0]].getConveyorId() + " ");
+                    }
+                    loop.insert(0, belts[next].getConveyorId() + " ");
+                    LOGGER.log(Level.WARNING, "Presents are routed around a loop of belts (" + loop.toString().trim()
+                            + "), which may deadlock when the belts fill up.");
+                } else if (state[next] == 0) {
+                    state[next] = 1;
+                    stack.add(new int[]{next, 0});
+                }
+            }
+        }
+    }
+
+    /**
+     * Advance a depth-first search entry to the next belt its presents are routed onto.
+     * @param entry {belt, next port to explore}, the port is advanced.
+     * @return The index of the next belt, or -1 when every port has been explored.
+     */
+    private int nextRoutedBelt(int[] entry) {
+        Turntable table = consumers[entry[0]];
+
+        while (table != null && entry[1] < 4) {
+            int port = entry[1]++;
+            Connection conn = table.getConnection(port);
+            if (usedPorts[entry[0]][port] && conn.connType == ConnectionType.OutputBelt) {
+                return beltIndices.get(conn.belt);
+            }
+        }
+        return -1;
+    }
+}
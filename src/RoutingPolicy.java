@@ -0,0 +1,123 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which output port a Turntable uses when several of them lead to a present's Sack.
+ * Ports are compared by how full the belt or sack they lead to is.
+ * @see Turntable
+ */
+public enum RoutingPolicy {
+    /** Use the port on the quickest route unless it is full, then the first candidate with space. */
+    FIRST_FIT("first-fit") {
+        @Override
+        int choosePort(Turntable table, int bestPort, int candidates) {
+            if (!isFull(table.getConnection(bestPort))) {
+                return bestPort;
+            }
+
+            for (int port = 0; port < 4; ++port) {
+                if ((candidates & (1 << port)) != 0 && !isFull(table.getConnection(port))) {
+                    return port;
+                }
+            }
+            return bestPort;
+        }
+    },
+    /** Use the candidate which is least full, preferring the quickest route on a tie. */
+    LEAST_LOADED("least-loaded") {
+        @Override
+        int choosePort(Turntable table, int bestPort, int candidates) {
+            int chosen = bestPort;
+
+            for (int port = 0; port < 4; ++port) {
+                if ((candidates & (1 << port)) != 0
+                        && lessLoaded(table.getConnection(port), table.getConnection(chosen))) {
+                    chosen = port;
+                }
+            }
+            return chosen;
+        }
+    },
+    /** Pick two candidates at random and use the least full of them. */
+    POWER_OF_TWO("power-of-two") {
+        @Override
+        int choosePort(Turntable table, int bestPort, int candidates) {
+            int first = randomPort(candidates);
+            int second = randomPort(candidates & ~(1 << first));
+
+            return lessLoaded(table.getConnection(second), table.getConnection(first)) ? second : first;
+        }
+    };
+
+    private final String name;
+
+    RoutingPolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Choose an output port.
+     * @param table The Turntable routing the present.
+     * @param bestPort The port on the quickest route.
+     * @param candidates A bit mask of every port which leads to the present's Sack (at least two).
+     * @return The output port to use.
+     */
+    abstract int choosePort(Turntable table, int bestPort, int candidates);
+
+    /**
+     * @return The name used to select the policy on the command line.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Find a policy by its command-line name.
+     * @param name The name (e.g. least-loaded).
+     * @return The policy.
+     */
+    public static RoutingPolicy fromName(String name) {
+        for (RoutingPolicy policy : values()) {
+            if (policy.name.equals(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown routing policy: " + name);
+    }
+
+    private static boolean isFull(Connection conn) {
+        return (conn.connType == ConnectionType.OutputSack) ? conn.sack.isFull() : conn.belt.isFull();
+    }
+
+    /**
+     * Compare how full two outputs are, as a fraction of their capacity.
+     * @return True if the first output is strictly less full than the second.
+     */
+    private static boolean lessLoaded(Connection a, Connection b) {
+        long countA = count(a);
+        long countB = count(b);
+        return countA * capacity(b) < countB * capacity(a);
+    }
+
+    private static int count(Connection conn) {
+        return (conn.connType == ConnectionType.OutputSack) ? conn.sack.count() : conn.belt.getCount();
+    }
+
+    private static int capacity(Connection conn) {
+        return (conn.connType == ConnectionType.OutputSack) ? conn.sack.getCapacity() : conn.belt.getCapacity();
+    }
+
+    /**
+     * @param candidates A non-empty bit mask of ports.
+     * @return One of the ports, at random.
+     */
+    private static int randomPort(int candidates) {
+        int pick = ThreadLocalRandom.current().nextInt(Integer.bitCount(candidates));
+        int port = Integer.numberOfTrailingZeros(candidates);
+
+        while (pick-- > 0) {
+            candidates &= candidates - 1;
+            port = Integer.numberOfTrailingZeros(candidates);
+        }
+        return port;
+    }
+}
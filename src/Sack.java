@@ -1,36 +1,73 @@
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
-import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Sacks should be implemented as a fixed size array, and act as a buffer for depositing Presents.
+ * A Sack is guarded by a ReentrantLock rather than its monitor, so a Turntable waiting for it to be emptied
+ * parks without pinning a virtual thread to its carrier.
  * @author Jacob
  * @author Nick
  */
 @ThreadSafe
-public class Sack
+public class Sack implements SackMXBean
 {
     /** ID of Sack */
     private final int id;
 
-    /** Array containing Presents */
-    private final Present[] accumulation;
+    /** Slots containing Presents */
+    private final PresentSlots accumulation;
 
     /** Age range of presents contained in Sack */
     private final String ageRange;
 
-    /** Number of presents contained */
-    @GuardedBy("this")
-    private int numPresents;
+    /** Where the Sack announces it is full, for an Elf to empty it (may be null). */
+    private final BlockingQueue<Sack> fullSacks;
+
+    /** Guards the presents in the Sack. */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled when the Sack is emptied, for Turntables waiting for space. */
+    private final Condition notFull = lock.newCondition();
+
+    /** Number of presents contained, volatile so a snapshot can read it without the lock */
+    @GuardedBy("lock")
+    private volatile int numPresents;
+
+    /** What numPresents was when the latest snapshot of the machine began. */
+    @GuardedBy("lock")
+    private final SnapshotGate.Mark numPresentsMark = new SnapshotGate.Mark();
+
+    /** Number of presents ever put in the Sack, volatile so a snapshot can read it without the lock. */
+    @GuardedBy("lock")
+    private volatile long presentsCollected = 0;
+
+    /** What presentsCollected was when the latest snapshot of the machine began. */
+    @GuardedBy("lock")
+    private final SnapshotGate.Mark presentsCollectedMark = new SnapshotGate.Mark();
+
+    /** Number of times the Sack was emptied by an Elf. */
+    @GuardedBy("lock")
+    private int timesEmptied = 0;
 
     /**
-     * Hold a global count of all presents instead of trying to acquire locks for every Sack when computing count.
+     * Counts the presents collected by every Sack of the machine, without locking each Sack.
      */
-    @GuardedBy("Sack")
-    private static int presentsCollected = 0;
+    private final MachineMetrics metrics;
+
+    /** Milliseconds of machine time from each present collected being deposited by its Hopper to reaching the Sack. */
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+
+    /** The clock of the machine, to time how long presents take to arrive. */
+    private volatile MachineClock clock = MachineClock.REAL;
+
+    /** The store of the machine, which the handles of presents put in the Sack refer to. */
+    private volatile PresentStore store = null;
 
     private static final Logger LOGGER = Logger.getLogger(Sack.class.getName());
 
@@ -38,13 +75,6 @@ public class Sack
         LOGGER.setLevel(level);
     }
 
-    /**
-     * Increase global count of Presents held in Sacks.
-     */
-    synchronized private static void increaseTotal() {
-        ++presentsCollected;
-    }
-
     /**
      * @return The ID of the Sack.
      */
@@ -60,36 +90,113 @@ public class Sack
     }
 
     /**
-     * Get the global amount of presents inside all Sacks.
-     *
-     * @return The amount.
+     * @return The maximum number of presents the sack can hold.
      */
-    synchronized public static int getPresentsCollected() {
-        return presentsCollected;
+    public int getCapacity() {
+        return accumulation.capacity();
+    }
+
+    /**
+     * @return Milliseconds of machine time from each present collected being deposited to reaching the Sack.
+     */
+    public LatencyHistogram getEndToEndLatency() {
+        return endToEndLatency;
     }
 
     /**
      * @return The number of presents in the sack.
      */
-    synchronized public int count() {
-        return numPresents;
+    public int count() {
+        lock.lock();
+        try {
+            return numPresents;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param epoch The epoch of a snapshot of the machine.
+     * @return The number of presents in the sack when the snapshot began.
+     */
+    int countAt(long epoch) {
+        return (int) numPresentsMark.at(numPresents, epoch);
     }
 
-    public Sack(int id, int capacity, String ageRange)
+    @Override
+    public int getCount() {
+        return count();
+    }
+
+    @Override
+    public long getPresentsCollected() {
+        return presentsCollected;
+    }
+
+    /**
+     * @param epoch The epoch of a snapshot of the machine.
+     * @return The number of presents ever put in the sack when the snapshot began.
+     */
+    long presentsCollectedAt(long epoch) {
+        return presentsCollectedMark.at(presentsCollected, epoch);
+    }
+
+    @Override
+    public int getTimesEmptied() {
+        lock.lock();
+        try {
+            return timesEmptied;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getEndToEndLatencyP99() {
+        return endToEndLatency.getPercentile(99);
+    }
+
+    /**
+     * Create a Sack.
+     * @param id The Sack ID.
+     * @param slots The slots to hold Presents in, their number is the maximum amount the Sack can fit.
+     * @param ageRange The age range of the presents collected.
+     * @param fullSacks The queue to place the Sack on once it is full, or null.
+     * @param metrics The counts of the machine the Sack belongs to.
+     */
+    public Sack(int id, PresentSlots slots, String ageRange, BlockingQueue<Sack> fullSacks, MachineMetrics metrics)
     {
-        accumulation = new Present[capacity];
+        this.metrics = metrics;
+        accumulation = slots;
         this.id = id;
         this.ageRange = ageRange;
+        this.fullSacks = fullSacks;
         numPresents = 0;
     }
 
 
+    /**
+     * Set the clock the Sack times the arrival of presents by.
+     * @param clock The clock of the machine.
+     */
+    public void setClock(MachineClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Set the store the handles of presents put in the Sack refer to.
+     * @param store The store of the machine.
+     */
+    public void setPresentStore(PresentStore store) {
+        this.store = store;
+    }
+
     /**
      * Check if Sack is full and cannot accept any more presents.
      * @return True if the Sack has enough space.
      */
-    synchronized public boolean isFull() {
-        return numPresents >= accumulation.length;
+    public boolean isFull() {
+        return count() >= accumulation.capacity();
     }
 
     /**
@@ -97,57 +204,194 @@ public class Sack
      * @apiNote Waits until Sack is not full.
      * @param present The Present to place in the Sack.
      */
-    synchronized public void putPresent(Present present) throws InterruptedException {
-        while(isFull()) {
-            wait();
+    public void putPresent(Present present) throws InterruptedException {
+        lock.lock();
+        try {
+            while(!offerPresent(present)) {
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // Append item and increase count
-        accumulation[numPresents] = present;
-        LOGGER.log(Level.INFO, "Putting present " + present.destination() + " in sack " + id);
-        numPresents++;
-        increaseTotal();
+    /**
+     * Wait until the Sack has space, without putting anything in it.
+     * Lets a Turntable wait outside of its Turnstile, then offer the Present within it.
+     */
+    public void awaitSpace() throws InterruptedException {
+        lock.lock();
+        try {
+            while (numPresents >= accumulation.capacity()) {
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        notifyAll();
+    /**
+     * Puts present in Sack array without waiting.
+     * @param present The Present to place in the Sack.
+     * @return True if the Sack had space and the Present was placed.
+     */
+    public boolean offerPresent(Present present) {
+        return offerPresent(present, clock.now());
     }
 
     /**
-     * Resets array count, does not null-out elements.
+     * Puts present in Sack array without waiting.
+     * @param present The Present to place in the Sack.
+     * @param now The time on the machine's clock, in milliseconds.
+     * @return True if the Sack had space and the Present was placed.
      */
-    synchronized public boolean empty(int timeout) throws InterruptedException {
-        if (!isFull()) {
-            wait(timeout);
+    public boolean offerPresent(Present present, long now) {
+        lock.lock();
+        try {
+            return put(present, now);
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * Puts a present in Sack array by its handle without waiting.
+     * @param handle The handle of the present to place in the Sack.
+     * @return True if the Sack had space and the present was placed.
+     */
+    public boolean offerHandle(int handle) {
+        return offerHandle(handle, clock.now());
+    }
+
+    /**
+     * Puts a present in Sack array by its handle without waiting.
+     * @param handle The handle of the present to place in the Sack.
+     * @param now The time on the machine's clock, in milliseconds.
+     * @return True if the Sack had space and the present was placed.
+     */
+    public boolean offerHandle(int handle, long now) {
+        return offerHandle(handle, now, SnapshotGate.NO_EPOCH);
+    }
 
-        boolean wasFull = isFull();
+    /**
+     * Puts a present in Sack array by its handle without waiting.
+     * @param handle The handle of the present to place in the Sack.
+     * @param now The time on the machine's clock, in milliseconds.
+     * @param epoch The epoch of the transfer placing it.
+     * @return True if the Sack had space and the present was placed.
+     */
+    public boolean offerHandle(int handle, long now, long epoch) {
+        lock.lock();
+        try {
+            if (numPresents >= accumulation.capacity()) {
+                return false;
+            }
 
-        if (wasFull) {
-            numPresents = 0;
-            notifyAll();
+            accumulation.setHandle(numPresents, handle);
+            collected(store.getDepositTime(handle), now, epoch);
+            // Nothing reads the present once it is in the Sack
+            store.release(handle);
+            return true;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return wasFull;
+    /**
+     * Puts present in Sack array if it has space, the lock must be held.
+     */
+    private boolean put(Present present, long now) {
+        if (numPresents >= accumulation.capacity()) {
+            return false;
+        }
+
+        accumulation.set(numPresents, present);
+        collected(present.getDepositTime(), now, SnapshotGate.NO_EPOCH);
+        // Nothing reads the present once it is in the Sack
+        present.release();
+        return true;
     }
 
-    //TODO - Add more methods
+    /**
+     * Count the present just placed in the next free slot as collected, the lock must be held.
+     * @param depositTime When the present was deposited by its Hopper, in milliseconds on the machine's clock.
+     * @param now The time on the machine's clock, in milliseconds.
+     * @param epoch The epoch of the transfer placing it.
+     */
+    private void collected(long depositTime, long now, long epoch) {
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Putting present " + accumulation.get(numPresents).destination() + " in sack " + id);
+        }
+        TraceRecorder.record(TraceEvent.SACK_PUT, id, accumulation.getId(numPresents));
+        numPresentsMark.add(numPresents, 1, epoch);
+        numPresents++;
+        presentsCollectedMark.add(presentsCollected, 1, epoch);
+        presentsCollected++;
+        long latency = now - depositTime;
+        endToEndLatency.record(latency);
+        metrics.presentCollected(latency);
+
+        // Ask for an Elf as soon as the Sack fills up
+        if (fullSacks != null && numPresents >= accumulation.capacity()) {
+            fullSacks.add(this);
+        }
+    }
 
     /**
-     * A factory that parses a string and constructs a Sack object.
-     * @param line The string to parse (e.g. 1 capacity 20 age 0-3)
+     * Resets array count if the Sack is full, does not null-out elements.
+     * @return True if the Sack was full and has been emptied.
      */
-    public static Sack parseString(String line) {
-        Scanner sackStream = new Scanner(line);
+    public boolean tryEmpty() {
+        return tryEmpty(SnapshotGate.NO_EPOCH);
+    }
 
-        int id = sackStream.nextInt();
-        sackStream.next(); // skip "capacity"
+    /**
+     * Resets array count if the Sack is full, does not null-out elements.
+     * @param epoch The epoch of the transfer emptying it.
+     * @return True if the Sack was full and has been emptied.
+     */
+    public boolean tryEmpty(long epoch) {
+        lock.lock();
+        try {
+            boolean wasFull = numPresents >= accumulation.capacity();
+
+            if (wasFull) {
+                TraceRecorder.record(TraceEvent.SACK_EMPTY, id, numPresents);
+                numPresentsMark.clear(numPresents, epoch);
+                numPresents = 0;
+                ++timesEmptied;
+                notFull.signalAll();
+            }
 
-        int capacity = sackStream.nextInt();
-        sackStream.next(); // skip "age"
+            return wasFull;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        String age = sackStream.next();
+    //TODO - Add more methods
 
-        LOGGER.log(Level.INFO, "Set up Sack " + id);
-        return new Sack(id, capacity, age);
+    /**
+     * A factory that parses a line and constructs a Sack object.
+     * @param config The configuration, at a line to parse (e.g. 1 capacity 20 age 0-3)
+     * @param fullSacks The queue to place the Sack on once it is full.
+     * @param metrics The counts of the machine the Sack belongs to.
+     * @param slots Creates the slots to hold presents in, given their number.
+     */
+    public static Sack parse(ConfigTokenizer config, BlockingQueue<Sack> fullSacks, MachineMetrics metrics,
+                             IntFunction<PresentSlots> slots) {
+        int id = config.nextInt("sack ID");
+        config.expect("capacity");
+
+        int capacity = config.nextInt("sack capacity");
+        config.expect("age");
+
+        String age = config.next("age range");
+
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Set up Sack " + id);
+        }
+        return new Sack(id, slots.apply(capacity), age, fullSacks, metrics);
     }
 
 
@@ -0,0 +1,41 @@
+/**
+ * The live state of a Sack, as published over JMX while the machine runs.
+ * @author Jacob
+ * @see MachineMBeans
+ */
+public interface SackMXBean {
+    /**
+     * @return The ID of the Sack.
+     */
+    int getSackId();
+
+    /**
+     * @return The age range of the presents collected.
+     */
+    String getAgeRange();
+
+    /**
+     * @return The number of presents in the sack.
+     */
+    int getCount();
+
+    /**
+     * @return The maximum number of presents the sack can hold.
+     */
+    int getCapacity();
+
+    /**
+     * @return The number of presents collected, including those since emptied by the Elves.
+     */
+    long getPresentsCollected();
+
+    /**
+     * @return The number of times the Sack was emptied by an Elf.
+     */
+    int getTimesEmptied();
+
+    /**
+     * @return The 99th percentile of milliseconds from presents being deposited to reaching the Sack.
+     */
+    long getEndToEndLatencyP99();
+}
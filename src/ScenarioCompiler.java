@@ -0,0 +1,194 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+
+/**
+ * Compiles a configuration file into a binary scenario, which the machine loads by memory-mapping it
+ * instead of parsing text.
+ * The text is loaded (and checked) by a streaming PresentSortingMachine, so presents are never all held
+ * in memory, then the layout and every present is written out in big-endian order:
+ * <ul>
+ *     <li>A header: MAGIC, VERSION, the timer length, the number of belts, hoppers, sacks, turntables
+ *     and elves, and the total number of presents (a long).</li>
+ *     <li>Belts: ID, length, queue type (0 monitor, 1 spsc), number of destinations, destinations.</li>
+ *     <li>Hoppers: ID, belt index, capacity, speed, number of presents.</li>
+ *     <li>Sacks: ID, capacity, age range.</li>
+ *     <li>Turntables: ID, then for each port N E S W a connection type (a byte, as CONNECTION_TYPES)
+ *     and a belt or sack index.</li>
+ *     <li>Elves: ID, speed.</li>
+ *     <li>Presents: for each hopper in turn, the index of the sack each present is destined for,
+ *     as a packed int array.</li>
+ * </ul>
+ * Strings are written as their length in bytes followed by their UTF-8 bytes, and every index counts from 0.
+ * Usage: {@code ScenarioCompiler scenario.txt scenario.psm}
+ * @author Jacob
+ * @see PresentSortingMachine#loadCompiled(String)
+ */
+public class ScenarioCompiler {
+    /** Marks a compiled scenario, "PSMC" in ASCII. */
+    static final int MAGIC = 0x50534D43;
+    static final int VERSION = 1;
+
+    /** The connection types, indexed by the byte written for each turntable port. */
+    static final ConnectionType[] CONNECTION_TYPES = {null, ConnectionType.InputBelt, ConnectionType.OutputBelt,
+            ConnectionType.OutputSack};
+
+    /** The number of presents read from the text at a time. */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Compiles a configuration file.
+     * @param args The configuration file, then the file to write the compiled scenario to.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: ScenarioCompiler <scenario.txt> <scenario.psm>");
+            System.exit(ErrorCodes.INPUT_FILE_IO_ERROR.getValue());
+        }
+
+        Main.setLoggingLevels();
+        try {
+            long start = System.currentTimeMillis();
+            long presents = compile(args[0], args[1]);
+            System.out.println("Compiled " + presents + " presents from " + args[0] + " into " + args[1]
+                    + " in " + (System.currentTimeMillis() - start) + "ms.");
+        } catch (IOException e) {
+            System.err.println(ErrorCodes.INPUT_FILE_IO_ERROR.getMsg() + " " + e.getMessage());
+            System.exit(ErrorCodes.INPUT_FILE_IO_ERROR.getValue());
+        }
+    }
+
+    /**
+     * Compile a configuration file.
+     * Exits with the matching error code if the configuration is not valid.
+     * @param configFile The configuration file.
+     * @param compiledFile The file to write the compiled scenario to.
+     * @return The number of presents compiled.
+     */
+    public static long compile(String configFile, String compiledFile) throws IOException {
+        // Stream the presents so only a window of them is in memory at a time
+        var machine = new PresentSortingMachine(configFile, false, 1);
+        Conveyor[] belts = machine.getBelts();
+        Hopper[] hoppers = machine.getHoppers();
+        Sack[] sacks = machine.getSacks();
+        Turntable[] tables = machine.getTables();
+        Elf[] elves = machine.getElves();
+
+        IdentityHashMap<Object, Integer> indices = new IdentityHashMap<>();
+        for (int i = 0; i < belts.length; ++i) {
+            indices.put(belts[i], i);
+        }
+        for (int i = 0; i < sacks.length; ++i) {
+            indices.put(sacks[i], i);
+        }
+
+        long presents = 0;
+        for (Hopper hopper : hoppers) {
+            presents += hopper.count();
+        }
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compiledFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(machine.getTimerLength());
+            out.writeInt(belts.length);
+            out.writeInt(hoppers.length);
+            out.writeInt(sacks.length);
+            out.writeInt(tables.length);
+            out.writeInt(elves.length);
+            out.writeLong(presents);
+
+            for (Conveyor belt : belts) {
+                out.writeInt(belt.getConveyorId());
+                out.writeInt(belt.getCapacity());
+                out.writeByte((belt instanceof SpscConveyor) ? 1 : 0);
+                out.writeInt(belt.getDestinations().size());
+                for (int destination : belt.getDestinations()) {
+                    out.writeInt(destination);
+                }
+            }
+
+            for (Hopper hopper : hoppers) {
+                out.writeInt(hopper.getHopperId());
+                out.writeInt(indices.get(hopper.getBelt()));
+                out.writeInt(hopper.getCapacity());
+                out.writeInt(hopper.getSpeed());
+                out.writeInt(hopper.count());
+            }
+
+            for (Sack sack : sacks) {
+                out.writeInt(sack.getSackId());
+                out.writeInt(sack.getCapacity());
+                writeString(out, sack.getAgeRange());
+            }
+
+            for (Turntable table : tables) {
+                writeString(out, table.getTurntableId());
+                for (int port = 0; port < 4; ++port) {
+                    Connection conn = table.getConnection(port);
+                    if (conn == null) {
+                        out.writeByte(0);
+                        out.writeInt(0);
+                    } else {
+                        out.writeByte(conn.connType.ordinal() + 1);
+                        out.writeInt(indices.get((conn.connType == ConnectionType.OutputSack) ? conn.sack : conn.belt));
+                    }
+                }
+            }
+
+            for (Elf elf : elves) {
+                out.writeInt(elf.getElfId());
+                out.writeInt(elf.getSpeed());
+            }
+
+            for (Hopper hopper : hoppers) {
+                writePresents(out, hopper.getStream(), hopper.count(), machine.getPresentStore());
+            }
+        }
+        return presents;
+    }
+
+    /**
+     * Write the sack index of every present in a Hopper's stream, reading them a chunk at a time.
+     * @param stream The stream, or null if the Hopper has no presents.
+     * @param count The number of presents in the stream.
+     * @param store The store the stream adds the presents to.
+     */
+    private static void writePresents(DataOutputStream out, PresentStream stream, int count, PresentStore store)
+            throws IOException {
+        PresentSlots chunk = PresentSlots.ofHandles(Math.min(count, CHUNK_SIZE), store);
+        for (int written = 0; written < count; ) {
+            int presents = Math.min(count - written, chunk.capacity());
+            stream.read(chunk, 0, presents);
+            for (int i = 0; i < presents; ++i) {
+                int handle = chunk.getHandle(i);
+                out.writeInt(store.getSackIndex(handle));
+                store.release(handle);
+            }
+            written += presents;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param fileName A scenario file.
+     * @return True if the file is a compiled scenario, false if it is text (or cannot be read).
+     */
+    public static boolean isCompiled(String fileName) {
+        try (var in = new DataInputStream(new FileInputStream(fileName))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
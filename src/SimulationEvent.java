@@ -0,0 +1,36 @@
+import net.jcip.annotations.Immutable;
+
+/**
+ * A timestamped action in the virtual-time simulation.
+ * Events happening at the same time are ordered by when they were scheduled.
+ * @author Jacob
+ */
+@Immutable
+public class SimulationEvent implements Comparable<SimulationEvent> {
+    /** Virtual time (in milliseconds) at which the event happens. */
+    public final long time;
+    /** Order in which the event was scheduled, used to break ties. */
+    public final long sequence;
+    private final Runnable action;
+
+    public SimulationEvent(long time, long sequence, Runnable action) {
+        this.time = time;
+        this.sequence = sequence;
+        this.action = action;
+    }
+
+    /**
+     * Carry out the event.
+     */
+    public void fire() {
+        action.run();
+    }
+
+    @Override
+    public int compareTo(SimulationEvent other) {
+        if (time != other.time) {
+            return Long.compare(time, other.time);
+        }
+        return Long.compare(sequence, other.sequence);
+    }
+}
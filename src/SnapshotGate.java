@@ -0,0 +1,201 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+/**
+ * Lets a snapshot of every component's counters be taken as a consistent cut, without locking the
+ * components or holding up the presents moving between them.
+ * Time is divided into epochs, and each snapshot begins a new one. Every transfer of a present from one
+ * component to the next (e.g. off a belt onto a Turntable) belongs to the epoch it started in, and passes it
+ * to each count it changes, whose Mark remembers what the count was before the first change of the epoch.
+ * A snapshot waits for the transfers of the previous epoch which are part way through to finish, then reads
+ * every count as it was when its own epoch began, leaving out the transfers which have started since.
+ * A transfer only counts itself on its own component's Turnstile and reads the epoch, so nothing is written by
+ * every transfer, and a transfer never waits for a snapshot.
+ * @author Jacob
+ * @see MachineSnapshot
+ */
+@ThreadSafe
+public class SnapshotGate {
+    /** The epoch of changes made outside of any transfer, which every snapshot sees. */
+    public static final long NO_EPOCH = -1;
+
+    private static final int SPIN_TRIES = 100;
+    private static final long DRAIN_PARK_NANOS = 20_000;
+
+    /**
+     * Counts the transfers of a single component which are part way through.
+     * A component with several threads shares its Turnstile between them.
+     */
+    @ThreadSafe
+    public static class Turnstile {
+        private final SnapshotGate gate;
+
+        /**
+         * The number of transfers part way through, by the parity of their epoch. Only two epochs can have
+         * transfers part way through at once: the latest, and the one before while its snapshot waits.
+         */
+        private final AtomicIntegerArray inside = new AtomicIntegerArray(2);
+
+        private Turnstile(SnapshotGate gate) {
+            this.gate = gate;
+        }
+
+        /**
+         * Start a transfer, in the latest epoch. Never waits, although it tries again if a snapshot begins at
+         * the same moment.
+         * Must be followed by `exit()`, and must not be held while waiting for anything.
+         * @return The epoch of the transfer, to pass to every count it changes.
+         */
+        public long enter() {
+            while (true) {
+                long epoch = gate.epoch;
+                int parity = (int) (epoch & 1);
+                // Announce the transfer before checking the epoch again, so a snapshot beginning the next one
+                // either waits for the transfer or the transfer sees the new epoch
+                inside.incrementAndGet(parity);
+                if (gate.epoch == epoch) {
+                    return epoch;
+                }
+
+                inside.decrementAndGet(parity);
+            }
+        }
+
+        /**
+         * Finish a transfer.
+         * @param epoch The epoch the transfer started in.
+         */
+        public void exit(long epoch) {
+            inside.decrementAndGet((int) (epoch & 1));
+        }
+
+        /**
+         * @param epoch The epoch before the latest.
+         * @return True if a transfer of the epoch is still part way through.
+         */
+        private boolean isInside(long epoch) {
+            return inside.get((int) (epoch & 1)) != 0;
+        }
+    }
+
+    /**
+     * Remembers what a count was when the latest epoch began.
+     * Told of each change to the count just before it is made, by one thread at a time (e.g. under the lock
+     * guarding the count). A snapshot reads the count without the lock, so the count must be volatile (or
+     * published by a later volatile write) and read before `at()`.
+     */
+    public static class Mark {
+        /** The count when the epoch began, along with the changes of earlier transfers which finished since. */
+        private long marked = 0;
+
+        /** The epoch of the first change since the count was marked. */
+        private volatile long markedEpoch = NO_EPOCH;
+
+        /**
+         * Note a change to the count.
+         * @param count The count before the change.
+         * @param delta The change.
+         * @param epoch The epoch of the transfer making the change.
+         */
+        public void add(long count, long delta, long epoch) {
+            long last = markedEpoch;
+            if (epoch > last) {
+                marked = count;
+                markedEpoch = epoch;
+            } else if (epoch < last) {
+                // A transfer from before the latest snapshot, which the snapshot must see
+                marked += delta;
+            }
+        }
+
+        /**
+         * Note the count going back to 0.
+         * @param count The count before the change.
+         * @param epoch The epoch of the transfer making the change.
+         */
+        public void clear(long count, long epoch) {
+            long last = markedEpoch;
+            if (epoch > last) {
+                marked = count;
+                markedEpoch = epoch;
+            } else if (epoch < last) {
+                marked = 0;
+            }
+        }
+
+        /**
+         * @param count The count now, read before calling.
+         * @param epoch The epoch of a snapshot, whose previous epoch has no transfers part way through.
+         * @return The count when the epoch began.
+         */
+        public long at(long count, long epoch) {
+            return (markedEpoch >= epoch) ? marked : count;
+        }
+    }
+
+    /** The Turnstile of every component of the machine. */
+    private final List<Turnstile> turnstiles = new CopyOnWriteArrayList<>();
+
+    /** The latest epoch, which begins with each snapshot, only written by the snapshot under the gate's monitor. */
+    private volatile long epoch = 0;
+
+    /**
+     * Make a Turnstile for a component, which the gate waits on for every snapshot.
+     * @return The component's Turnstile.
+     */
+    public Turnstile newTurnstile() {
+        Turnstile turnstile = new Turnstile(this);
+        turnstiles.add(turnstile);
+        return turnstile;
+    }
+
+    /**
+     * Read the counters of every component as they were when a new epoch began.
+     * Snapshots are taken one at a time, each beginning an epoch of its own.
+     * @param reader Reads the counters, given the epoch of the snapshot (counting from 1), as they were when it
+     *               began, e.g. `Mark.at(count, epoch)`.
+     * @param <T> The type of the snapshot.
+     * @return The snapshot.
+     */
+    synchronized public <T> T snapshot(LongFunction<T> reader) {
+        long next = epoch + 1;
+        epoch = next;
+        awaitEpoch(next - 1);
+        return reader.apply(next);
+    }
+
+    /**
+     * Wait for the transfers of an epoch which are part way through to finish.
+     * Sweeps every Turnstile, then waits once for all those still busy, so a snapshot waits about as long as the
+     * slowest transfer rather than for each in turn.
+     * @param epoch The epoch before the latest.
+     */
+    private void awaitEpoch(long epoch) {
+        Turnstile[] busy = turnstiles.toArray(new Turnstile[0]);
+        int remaining = busy.length;
+        for (int tries = 0; ; ++tries) {
+            int stillBusy = 0;
+            for (int i = 0; i < remaining; ++i) {
+                if (busy[i].isInside(epoch)) {
+                    busy[stillBusy++] = busy[i];
+                }
+            }
+            remaining = stillBusy;
+            if (remaining == 0) {
+                return;
+            }
+
+            if (tries < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                // Let a transfer which was descheduled part way through finish
+                LockSupport.parkNanos(DRAIN_PARK_NANOS);
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A Conveyor for belts with exactly one producer (a Hopper or a Turntable output port)
+ * and exactly one consumer (the downstream Turntable).
+ * Instead of a monitor, the head and tail of the circular buffer are sequence counters which are
+ * only ever written by their own side, so presents are exchanged without locks.
+ * Waiting threads spin briefly, then yield, then park for increasing periods.
+ * @author Jacob
+ */
+@ThreadSafe
+public class SpscConveyor extends Conveyor
+{
+    /** Sequence of the next present to take, only written by the consumer. */
+    private final PaddedSequence head = new PaddedSequence(0);
+    /** Sequence of the next free slot, only written by the producer. */
+    private final PaddedSequence tail = new PaddedSequence(0);
+
+    /** What head was when the latest snapshot of the machine began, only written by the consumer. */
+    private final SnapshotGate.Mark headMark = new SnapshotGate.Mark();
+    /** What tail was when the latest snapshot of the machine began, only written by the producer. */
+    private final SnapshotGate.Mark tailMark = new SnapshotGate.Mark();
+
+    /** The producer's last view of the head, to avoid reading it on every put. */
+    private long cachedHead = 0;
+    /** The consumer's last view of the tail, to avoid reading it on every take. */
+    private long cachedTail = 0;
+
+    /** Number of attempts to busy-spin before yielding. */
+    private static final int SPIN_TRIES = 100;
+    /** Number of attempts to yield before parking. */
+    private static final int YIELD_TRIES = 200;
+    /** The longest a waiting thread parks before checking again. */
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    /**
+     * Constructs a lock-free Conveyor from an ID and size.
+     * @param id ID of the Conveyor.
+     * @param size Maximum capacity of the queue.
+     */
+    public SpscConveyor(int id, int size) {
+        super(id, size);
+    }
+
+    /**
+     * Constructs a lock-free Conveyor from an ID and the slots to hold presents in.
+     * @param id ID of the Conveyor.
+     * @param slots The slots of the queue, their number is its maximum capacity.
+     */
+    public SpscConveyor(int id, PresentSlots slots) {
+        super(id, slots);
+    }
+
+    /**
+     * @return Current amount of items inside Conveyor.
+     */
+    @Override
+    public int getCount() {
+        // Read head first so that the difference is never negative
+        long taken = head.get();
+        long count = tail.get() - taken;
+        return (int) Math.min(count, presents.capacity());
+    }
+
+    /**
+     * @param epoch The epoch of a snapshot of the machine.
+     * @return The amount of items inside the Conveyor when the snapshot began.
+     */
+    @Override
+    int countAt(long epoch) {
+        // Read each sequence before its Mark, which is always updated before the sequence
+        long taken = headMark.at(head.get(), epoch);
+        long count = tailMark.at(tail.get(), epoch) - taken;
+        return (int) Math.min(count, presents.capacity());
+    }
+
+    /**
+     * @return The number of presents ever put on the Conveyor, which is the producer's sequence.
+     */
+    @Override
+    public long getPresentsCarried() {
+        return tail.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    @Override
+    public boolean isFull() {
+        return getCount() >= presents.capacity();
+    }
+
+    /**
+     * Attempt to put a Present in the Conveyor without waiting.
+     * Must only be called by the single producer.
+     * @param present The Present to place in the queue.
+     * @return True if there was space and the Present was deposited.
+     */
+    @Override
+    public boolean offerPresent(Present present) {
+        long next = nextFreeSlot();
+        if (next < 0) {
+            return false;
+        }
+
+        presents.set((int) (next % presents.capacity()), present);
+        publish(next, SnapshotGate.NO_EPOCH);
+        return true;
+    }
+
+    /**
+     * Attempt to put a present in the Conveyor by its handle without waiting.
+     * Must only be called by the single producer.
+     * @param handle The handle of the present to place in the queue.
+     * @param epoch The epoch of the transfer placing it.
+     * @return True if there was space and the present was deposited.
+     */
+    @Override
+    public boolean offerHandle(int handle, long epoch) {
+        long next = nextFreeSlot();
+        if (next < 0) {
+            return false;
+        }
+
+        presents.setHandle((int) (next % presents.capacity()), handle);
+        publish(next, epoch);
+        return true;
+    }
+
+    /**
+     * @return The sequence of the next free slot, or -1 if the Conveyor is full.
+     */
+    private long nextFreeSlot() {
+        long next = tail.get();
+
+        if (next - cachedHead >= presents.capacity()) {
+            cachedHead = head.get();
+            if (next - cachedHead >= presents.capacity()) {
+                return -1;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Hand the present just placed in a slot to the consumer.
+     * @param next The sequence of the slot.
+     * @param epoch The epoch of the transfer placing it.
+     */
+    private void publish(long next, long epoch) {
+        // Read before publishing, after which the consumer may take the present and clear the slot
+        int presentId = presents.getId((int) (next % presents.capacity()));
+        tailMark.add(next, 1, epoch);
+        // Publish the present to the consumer. This must be a full volatile write rather than a lazySet,
+        // so it cannot be reordered with the check of the consumer's signal that follows.
+        tail.set(next + 1);
+        TraceRecorder.record(TraceEvent.BELT_PUT, getConveyorId(), presentId);
+        raiseConsumerSignal();
+    }
+
+    /**
+     * Attempt to put several presents in the Conveyor by their handles without waiting, publishing them all at once.
+     * Must only be called by the single producer.
+     * @param batch The handles of the presents to place in the queue, in order.
+     * @param offset The index of the first handle in the batch.
+     * @param length The number of presents to place.
+     * @param epoch The epoch of the transfer placing them.
+     * @return The number of presents deposited from the start, as many as there was space for.
+     */
+    @Override
+    public int putAll(int[] batch, int offset, int length, long epoch) {
+        long next = tail.get();
+
+        if (next - cachedHead + length > presents.capacity()) {
+            cachedHead = head.get();
+        }
+        int placed = (int) Math.min(length, presents.capacity() - (next - cachedHead));
+        if (placed <= 0) {
+            return 0;
+        }
+
+        for (int i = 0; i < placed; ++i) {
+            int index = (int) ((next + i) % presents.capacity());
+            presents.setHandle(index, batch[offset + i]);
+            TraceRecorder.record(TraceEvent.BELT_PUT, getConveyorId(), presents.getId(index));
+        }
+        tailMark.add(next, placed, epoch);
+        // A single volatile write publishes the whole batch, and the consumer is woken once
+        tail.set(next + placed);
+        raiseConsumerSignal();
+        return placed;
+    }
+
+    /**
+     * Take up to a number of presents from the Conveyor by their handles without waiting, releasing their
+     * slots all at once.
+     * Must only be called by the single consumer.
+     * @param batch Where to place the handles of the presents, in order from the front of the queue.
+     * @param max The most presents to take.
+     * @param epoch The epoch of the transfer taking them.
+     * @return The number of presents taken, 0 if the Conveyor is empty.
+     */
+    @Override
+    public int drainTo(int[] batch, int max, long epoch) {
+        long next = head.get();
+
+        if (next + max > cachedTail) {
+            cachedTail = tail.get();
+        }
+        int taken = (int) Math.min(max, cachedTail - next);
+        if (taken <= 0) {
+            return 0;
+        }
+
+        for (int i = 0; i < taken; ++i) {
+            int index = (int) ((next + i) % presents.capacity());
+            batch[i] = presents.getHandle(index);
+            TraceRecorder.record(TraceEvent.BELT_TAKE, getConveyorId(), presents.getId(index));
+            presents.clear(index);
+        }
+        headMark.add(next, taken, epoch);
+        head.lazySet(next + taken);
+        return taken;
+    }
+
+    /**
+     * Take a Present from the Conveyor without waiting.
+     * Must only be called by the single consumer.
+     * @return Present at front of queue, or null if the Conveyor is empty.
+     */
+    @Override
+    public Present pollPresent() {
+        long next = head.get();
+
+        if (next >= cachedTail) {
+            cachedTail = tail.get();
+            if (next >= cachedTail) {
+                return null;
+            }
+        }
+
+        int index = (int) (next % presents.capacity());
+        Present present = presents.get(index);
+        presents.clear(index);
+        headMark.add(next, 1, SnapshotGate.NO_EPOCH);
+        // Release the slot to the producer
+        head.lazySet(next + 1);
+        TraceRecorder.record(TraceEvent.BELT_TAKE, getConveyorId(), present.getId());
+        return present;
+    }
+
+    @Override
+    public void putPresent(Present present, int timeout) throws InterruptedException {
+        putPresent(present);
+    }
+
+    @Override
+    public void putPresent(Present present) throws InterruptedException {
+        for (int tries = 0; !offerPresent(present); ++tries) {
+            backOff(tries);
+        }
+    }
+
+    @Override
+    public void awaitSpace() throws InterruptedException {
+        for (int tries = 0; isFull(); ++tries) {
+            backOff(tries);
+        }
+    }
+
+    @Override
+    public Present takePresent(int timeout) throws InterruptedException {
+        return takePresent();
+    }
+
+    @Override
+    public Present takePresent() throws InterruptedException {
+        Present present;
+        for (int tries = 0; (present = pollPresent()) == null; ++tries) {
+            backOff(tries);
+        }
+        return present;
+    }
+
+    /**
+     * Wait a little before trying again: spin, then yield, then park.
+     * @param tries The number of attempts made so far.
+     */
+    private static void backOff(int tries) throws InterruptedException {
+        if (tries < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            int parks = tries - SPIN_TRIES - YIELD_TRIES;
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(parks, 10)));
+        }
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
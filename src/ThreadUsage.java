@@ -0,0 +1,88 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adds up the CPU time and memory allocated by the threads the components of a machine run on.
+ * Each thread reads its own totals from the ThreadMXBean just before it ends, so threads which have already
+ * finished are counted too. Allocation is only counted on JVMs which measure it (such as HotSpot).
+ * @author Jacob
+ * @see PresentSortingMachine#setThreadUsage(ThreadUsage)
+ */
+@ThreadSafe
+public class ThreadUsage {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final LongAdder cpuTime = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder threads = new LongAdder();
+
+    /**
+     * Wrap a component so the thread running it is counted once it finishes.
+     * @param component The Hopper, Turntable or Elf.
+     * @return The component, counting its thread.
+     */
+    public Runnable measure(Runnable component) {
+        return () -> {
+            try {
+                component.run();
+            } finally {
+                recordCurrentThread();
+            }
+        };
+    }
+
+    /**
+     * Count the current thread, which must not be counted again.
+     */
+    public void recordCurrentThread() {
+        threads.increment();
+
+        long cpu = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        if (cpu > 0) {
+            cpuTime.add(cpu);
+        }
+
+        long allocated = allocatedBytes(Thread.currentThread());
+        if (allocated > 0) {
+            allocatedBytes.add(allocated);
+        }
+    }
+
+    /**
+     * @param thread A live thread.
+     * @return The number of bytes the thread has allocated, or -1 if it is not measured.
+     */
+    public static long allocatedBytes(Thread thread) {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            var threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(thread.getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The CPU time used by the threads counted, in nanoseconds.
+     */
+    public long getCpuTime() {
+        return cpuTime.sum();
+    }
+
+    /**
+     * @return The bytes allocated by the threads counted.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * @return The number of threads counted.
+     */
+    public int getThreads() {
+        return threads.intValue();
+    }
+}
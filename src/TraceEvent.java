@@ -0,0 +1,24 @@
+/**
+ * Represents a kind of record written by the TraceRecorder.
+ * @see TraceRecorder
+ */
+public enum TraceEvent {
+    HOPPER_DEPOSIT(1),
+    BELT_PUT(2),
+    BELT_TAKE(3),
+    SACK_PUT(4),
+    SACK_EMPTY(5);
+
+    private final int code;
+
+    TraceEvent(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return The code identifying the event in a trace file.
+     */
+    public int getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,189 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records machine events as fixed-size binary records into a ring buffer, which a background thread
+ * drains into a file.
+ * When no recorder is active, `record()` is a single null check and allocates nothing.
+ * If the file cannot keep up and the ring fills, new records are dropped (and counted) rather than
+ * slowing the machine down.
+ * <p>
+ * Each record in the file is 16 bytes, big-endian: the nanoseconds since tracing started (8 bytes),
+ * the event code (1 byte), the component ID (3 bytes) and the present ID (4 bytes).
+ * @author Jacob
+ * @see TraceEvent
+ */
+@ThreadSafe
+public class TraceRecorder {
+    /** The recorder events are currently sent to, null when tracing is off. */
+    private static volatile TraceRecorder active = null;
+
+    private static final int RECORD_BYTES = 16;
+    /** The number of records written to the file at once. */
+    private static final int WRITE_BATCH = 4096;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    /** Two slots per record: timestamp and packed event. A zero timestamp marks an unpublished record. */
+    private final AtomicLongArray ring;
+    private final int mask;
+
+    /** Set in the claim sequence when stopping, so nothing can be claimed after the drainer finishes. */
+    private static final long SEALED = 1L << 62;
+
+    /** Sequence of the next record to claim, with SEALED set once no more may be claimed. */
+    private final AtomicLong claimed = new PaddedSequence(0);
+    /** Sequence of the next record to drain, only written by the drainer. */
+    private final AtomicLong drained = new PaddedSequence(0);
+    private final LongAdder dropped = new LongAdder();
+
+    private final long origin = System.nanoTime();
+    private final FileChannel channel;
+    private final Thread drainer;
+
+    private static final Logger LOGGER = Logger.getLogger(TraceRecorder.class.getName());
+
+    synchronized static public void setLoggerLevel(Level level) {
+        LOGGER.setLevel(level);
+    }
+
+    private TraceRecorder(String fileName, int capacity) throws IOException {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        ring = new AtomicLongArray(size * 2);
+        mask = size - 1;
+
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        drainer = new Thread(this::drain, "trace-drainer");
+        drainer.setDaemon(true);
+    }
+
+    /**
+     * Start tracing every machine event into a file.
+     * @param fileName The file to write the records to.
+     * @param capacity The number of records the ring buffer can hold (rounded up to a power of two).
+     * @return The recorder, which must be stopped to flush the file.
+     */
+    synchronized public static TraceRecorder start(String fileName, int capacity) throws IOException {
+        if (active != null) {
+            throw new IllegalStateException("Tracing has already started.");
+        }
+
+        TraceRecorder recorder = new TraceRecorder(fileName, capacity);
+        recorder.drainer.start();
+        active = recorder;
+        return recorder;
+    }
+
+    /**
+     * Record an event if tracing is on.
+     * @param event The kind of event.
+     * @param component The ID of the Hopper, Conveyor or Sack involved.
+     * @param present The ID of the Present involved (or a count, for Sacks being emptied).
+     */
+    public static void record(TraceEvent event, int component, int present) {
+        TraceRecorder recorder = active;
+        if (recorder != null) {
+            recorder.write(event.getCode(), component, present);
+        }
+    }
+
+    private void write(int code, int component, int present) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if ((sequence & SEALED) != 0) {
+                // The recorder stopped after this event was sent to it, it is too late to record
+                return;
+            }
+            if (sequence - drained.get() > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & mask) * 2;
+        long packed = ((long) (code & 0xFF) << 56) | ((long) (component & 0xFFFFFF) << 32) | (present & 0xFFFFFFFFL);
+        ring.set(slot + 1, packed);
+        // Publishing the timestamp last marks the record as complete
+        ring.set(slot, Math.max(1, System.nanoTime() - origin));
+    }
+
+    /**
+     * Copy records from the ring to the file until the recorder is stopped and every record claimed
+     * before then has been published and copied.
+     */
+    private void drain() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BATCH * RECORD_BYTES);
+        long next = 0;
+
+        try {
+            while (true) {
+                long claim = claimed.get();
+                if (next == (claim & ~SEALED) && (claim & SEALED) != 0) {
+                    break;
+                }
+
+                int slot = (int) (next & mask) * 2;
+                long time = (next < (claim & ~SEALED)) ? ring.get(slot) : 0;
+
+                if (time == 0) {
+                    // Nothing new (or the record is still being written): flush and wait a little
+                    flush(buffer);
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+
+                buffer.putLong(time).putLong(ring.get(slot + 1));
+                ring.set(slot, 0);
+                drained.set(++next);
+
+                if (!buffer.hasRemaining()) {
+                    flush(buffer);
+                }
+            }
+            flush(buffer);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Tracing stopped, could not write trace file.", e);
+        }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Stop tracing, write any records left in the ring and close the file.
+     */
+    public void stop() throws IOException, InterruptedException {
+        synchronized (TraceRecorder.class) {
+            if (active == this) {
+                active = null;
+            }
+        }
+
+        // Seal the sequence so the drainer knows the last record it has to wait for
+        claimed.getAndUpdate(sequence -> sequence | SEALED);
+        LockSupport.unpark(drainer);
+        drainer.join();
+        channel.close();
+
+        if (dropped.sum() > 0) {
+            LOGGER.log(Level.WARNING, dropped.sum() + " trace records were dropped because the ring was full.");
+        }
+    }
+}
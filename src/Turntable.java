@@ -1,15 +1,23 @@
 import net.jcip.annotations.GuardedBy;
 
-import java.util.HashMap;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * A Turntable takes presents off its input belts in turn, moves each in, turns if it has to, and moves it
+ * out into a Sack or onto a belt.
+ * With a single slot it handles one present at a time. With more, it is pipelined: the next present
+ * moves in (and turns) while the last moves out, and each output port moves its presents out on a lane
+ * of its own, so a full output only holds up the presents bound for it, while there are slots left.
+ * Presents are moved across by their handles in the machine's PresentStore, so none are allocated on the way.
  * @author Jacob
  * @author Nick
  */
-public class Turntable extends Thread
+public class Turntable implements Runnable, TurntableMXBean
 {
     private final String id;
 
@@ -20,21 +28,75 @@ public class Turntable extends Thread
 
     private final Connection[] connections = new Connection[4];
 
-    // global lookup: age-range -> SackID
-    @GuardedBy("Turntable")
-    private static final HashMap<String, Integer> destinations = new HashMap<>();
+    /** Raised by the input Conveyors whenever a present is put on them. */
+    private final ReadinessSignal inputSignal = new ReadinessSignal();
 
-    // this individual table's lookup: SackID -> output port
-    private final HashMap<Integer, Integer> outputMap = new HashMap<>();
+    // this individual table's lookup: input port -> sack index -> output port (or NO_ROUTE)
+    private byte[][] routes = new byte[4][0];
+
+    // input port -> sack index -> bit mask of every output port leading to the sack
+    private byte[][] candidates = new byte[4][0];
+
+    /** Chooses between output ports when several lead to the same sack. */
+    private RoutingPolicy policy = RoutingPolicy.FIRST_FIT;
+
+    /** The clock of the machine, which moves and rotations are timed by. */
+    private volatile MachineClock clock = MachineClock.REAL;
+
+    /** Counts each present moved, so snapshots of the machine never see one half moved. */
+    private volatile SnapshotGate.Turnstile turnstile = new SnapshotGate().newTurnstile();
+
+    /** The store of the machine, which the handles of the presents moved across refer to. */
+    private volatile PresentStore store = null;
+
+    static final int NO_ROUTE = -1;
 
     private static final int ROTATION_DELAY = 500;
     private static final int MOVE_DELAY = 750;
 
+    /**
+     * Presents taken off the inputs and not yet handed on, the one moving across and any waiting in the intake.
+     * Volatile so a snapshot can read it without the monitor, after its Mark has been updated.
+     */
     @GuardedBy("this")
-    private boolean hasPresent = false;
+    private volatile int presentsHeld = 0;
 
+    /** What presentsHeld was when the latest snapshot of the machine began. */
     @GuardedBy("this")
-    private boolean blocked = false;
+    private final SnapshotGate.Mark presentsHeldMark = new SnapshotGate.Mark();
+
+    /** The handles of presents taken off an input belt together, moved across one at a time. */
+    private int[] intake = new int[1];
+
+    /** The number of outputs waiting for a full Sack to be emptied. */
+    @GuardedBy("this")
+    private int blockedOutputs = 0;
+
+    /** The most presents moving across the Turntable at once, or waiting to leave it. */
+    private int slots = 1;
+
+    /** Creates the threads the output lanes of a pipelined Turntable run on. */
+    private ComponentRuntime runtime = ComponentRuntime.PLATFORM;
+
+    /** Slots free for a present to move in, only taken by the Turntable's own thread. */
+    private final Semaphore freeSlots = new Semaphore(0);
+
+    /** For each output port of a pipelined Turntable, moves the presents out through it, or null. */
+    private final OutputLane[] lanes = new OutputLane[4];
+
+    /** Total milliseconds spent waiting for a full Sack to be emptied. */
+    @GuardedBy("this")
+    private long sackBlockedTime = 0;
+
+    /** Number of times a present was held up by a full Sack. */
+    @GuardedBy("this")
+    private int sackBlockedCount = 0;
+
+    /** Milliseconds of machine time each present waited on an input belt before being taken. */
+    private final LatencyHistogram waitLatency = new LatencyHistogram();
+
+    /** Milliseconds of machine time from taking each present to handing it on, including any wait for the output. */
+    private final LatencyHistogram transitLatency = new LatencyHistogram();
 
     private static final Logger LOGGER = Logger.getLogger(Turntable.class.getName());
 
@@ -43,11 +105,249 @@ public class Turntable extends Thread
     }
 
     synchronized public int count() {
-        return hasPresent ? 1 : 0;
+        return presentsHeld;
+    }
+
+    /**
+     * @param epoch The epoch of a snapshot of the machine.
+     * @return The number of presents held by the Turntable when the snapshot began.
+     */
+    int countAt(long epoch) {
+        return (int) presentsHeldMark.at(presentsHeld, epoch);
+    }
+
+    @Override
+    synchronized public boolean isBusy() {
+        return presentsHeld > 0;
+    }
+
+    @Override
+    synchronized public boolean isBlocked() {
+        return blockedOutputs > 0;
+    }
+
+    @Override
+    public long getPresentsRouted() {
+        return transitLatency.getCount();
+    }
+
+    @Override
+    public long getWaitLatencyP99() {
+        return waitLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getTransitLatencyP99() {
+        return transitLatency.getPercentile(99);
+    }
+
+    /**
+     * @return Total seconds spent waiting for a full Sack to be emptied.
+     */
+    synchronized public long getSackBlockedTime() {
+        return sackBlockedTime / 1000;
+    }
+
+    /**
+     * @return Number of times a present was held up by a full Sack.
+     */
+    synchronized public int getSackBlockedCount() {
+        return sackBlockedCount;
+    }
+
+    /**
+     * @return Milliseconds of machine time each present waited on an input belt before being taken.
+     */
+    public LatencyHistogram getWaitLatency() {
+        return waitLatency;
+    }
+
+    /**
+     * @return Milliseconds of machine time from taking each present to handing it on.
+     */
+    public LatencyHistogram getTransitLatency() {
+        return transitLatency;
+    }
+
+    /**
+     * Record a present being taken off an input belt.
+     * @param handle The handle of the present.
+     * @param now The time on the machine's clock, in milliseconds.
+     */
+    void recordTaken(int handle, long now) {
+        waitLatency.record(now - store.getArrivalTime(handle));
+        store.setArrivalTime(handle, now);
+    }
+
+    /**
+     * Record a present being handed on to a Sack or belt.
+     * @param takenAt When the present was taken off its input belt, in milliseconds on the machine's clock.
+     * @param now The time on the machine's clock, in milliseconds.
+     */
+    void recordHandedOn(long takenAt, long now) {
+        transitLatency.record(now - takenAt);
+    }
+
+    synchronized void setBlocked(boolean blocked) {
+        blockedOutputs += blocked ? 1 : -1;
+    }
+
+    /**
+     * Record that a present was held up by a full Sack.
+     * @param waited The number of milliseconds spent waiting.
+     */
+    synchronized void recordSackBlocked(long waited) {
+        sackBlockedTime += waited;
+        ++sackBlockedCount;
+    }
+
+    /**
+     * Record presents being taken off an input belt.
+     * @param count The number of presents.
+     */
+    void presentsTaken(int count) {
+        presentsTaken(count, SnapshotGate.NO_EPOCH);
+    }
+
+    /**
+     * Record presents being taken off an input belt.
+     * @param count The number of presents.
+     * @param epoch The epoch of the transfer taking them.
+     */
+    synchronized void presentsTaken(int count, long epoch) {
+        presentsHeldMark.add(presentsHeld, count, epoch);
+        presentsHeld += count;
+    }
+
+    /**
+     * Record a present leaving the Turntable.
+     */
+    void presentHandedOn() {
+        presentHandedOn(SnapshotGate.NO_EPOCH);
+    }
+
+    /**
+     * Record a present leaving the Turntable.
+     * @param epoch The epoch of the transfer handing it on.
+     */
+    synchronized void presentHandedOn(long epoch) {
+        presentsHeldMark.add(presentsHeld, -1, epoch);
+        --presentsHeld;
+    }
+
+    /**
+     * @return The most presents moving across the Turntable at once.
+     */
+    public int getSlots() {
+        return slots;
+    }
+
+    /**
+     * Set the most presents moving across the Turntable at once, or waiting at an output to leave it.
+     * Must be set before the Turntable runs.
+     * @param slots The number of presents, 1 to handle one at a time.
+     */
+    public void setSlots(int slots) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("A turntable must have at least 1 slot.");
+        }
+        this.slots = slots;
+    }
+
+    /**
+     * Choose which kind of thread the output lanes of a pipelined Turntable run on.
+     * @param runtime The runtime creating the threads.
+     */
+    public void setComponentRuntime(ComponentRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    /**
+     * @return The most presents taken off an input belt at once.
+     */
+    public int getIntakeBatch() {
+        return intake.length;
+    }
+
+    /**
+     * Set the most presents taken off an input belt at once, when several are waiting on it.
+     * They are then moved across one at a time, but freed from the belt under a single lock.
+     * Must be set before the Turntable runs.
+     * @param batch The number of presents, 1 to take one at a time.
+     */
+    public void setIntakeBatch(int batch) {
+        if (batch < 1) {
+            throw new IllegalArgumentException("A turntable must take at least 1 present at a time.");
+        }
+        intake = new int[batch];
+    }
+
+    /**
+     * @return The ID of the Turntable.
+     */
+    public String getTurntableId() {
+        return id;
+    }
+
+    /**
+     * @param port The port to look up.
+     * @return The Connection at that port, or null if the port is unused.
+     */
+    Connection getConnection(int port) {
+        return connections[port];
+    }
+
+    /**
+     * Find the output port a Present has to leave through.
+     * @param inputPort The port the Present came in from.
+     * @param sackIndex The index of the Sack the Present is destined for.
+     * @return The output port.
+     */
+    int outputPortFor(int inputPort, int sackIndex) {
+        byte[] table = routes[inputPort];
+        int port = (table != null && sackIndex < table.length) ? table[sackIndex] : NO_ROUTE;
+
+        if (port == NO_ROUTE) {
+            throw new IllegalStateException("Turntable " + id + " has no route to sack index " + sackIndex);
+        }
+
+        // Only consult the policy when there is a choice to make
+        int ports = candidates[inputPort][sackIndex];
+        if ((ports & (ports - 1)) == 0) {
+            return port;
+        }
+        return policy.choosePort(this, port, ports);
+    }
+
+    /**
+     * Time taken to move a present in, turn if necessary, and move it out.
+     * @param inputPort The port the present comes in from.
+     * @param outputPort The port the present leaves through.
+     * @return The number of milliseconds.
+     */
+    static int transferTime(int inputPort, int outputPort) {
+        return moveInTime(inputPort, outputPort) + moveOutTime();
+    }
+
+    /**
+     * Time taken to move a present in and turn if necessary, after which a pipelined Turntable can take the next.
+     * @param inputPort The port the present comes in from.
+     * @param outputPort The port the present leaves through.
+     * @return The number of milliseconds.
+     */
+    static int moveInTime(int inputPort, int outputPort) {
+        return MOVE_DELAY + (needsRotation(inputPort, outputPort) ? ROTATION_DELAY : 0);
+    }
+
+    /**
+     * @return The number of milliseconds taken to move a present out.
+     */
+    static int moveOutTime() {
+        return MOVE_DELAY;
     }
 
-    synchronized boolean isBlocked() {
-        return blocked;
+    private static boolean needsRotation(int inputPort, int outputPort) {
+        return Math.abs(inputPort - outputPort) % 2 != 0;
     }
 
     /**
@@ -59,16 +359,6 @@ public class Turntable extends Thread
         id = ID;
     }
 
-    /**
-     * Add a new destination to the global lookup.
-     * @param key The destination age-range.
-     * @param destination The Turntable ID?
-     * @return Result of put operation.
-     */
-    synchronized public static Integer addDestination(String key, int destination) {
-        return destinations.put(key, destination);
-    }
-
     /**
      * Add a local connection to the Turntable.
      * @param port The port to connect to.
@@ -78,21 +368,112 @@ public class Turntable extends Thread
     synchronized public void addConnection(int port, Connection conn) {
         connections[port] = conn;
 
-        if (conn != null) {
-            if(conn.connType == ConnectionType.OutputBelt) {
-                for (Integer destination : conn.belt.getDestinations()) {
-                    outputMap.put(destination, port);
-                }
+        if (conn != null && conn.connType == ConnectionType.InputBelt) {
+            conn.belt.setConsumerSignal(inputSignal);
+        }
+    }
+
+    /**
+     * Set the routing table, once it has been planned.
+     * @param routes For each input port, the output port on the quickest route to each sack index (or NO_ROUTE).
+     * @param candidates For each input port, a bit mask of the output ports leading to each sack index.
+     * @see RoutePlanner
+     */
+    synchronized void setRoutes(byte[][] routes, byte[][] candidates) {
+        this.routes = routes;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Set the clock the Turntable keeps time by.
+     * @param clock The clock of the machine.
+     */
+    public void setClock(MachineClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Set the gate the Turntable passes through while moving a present, giving the Turntable a Turnstile of its own.
+     * @param gate The gate of the machine.
+     */
+    public void setSnapshotGate(SnapshotGate gate) {
+        this.turnstile = gate.newTurnstile();
+    }
+
+    /**
+     * Set the store the handles of the presents moved across refer to.
+     * @param store The store of the machine.
+     */
+    public void setPresentStore(PresentStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Set how to choose between output ports leading to the same sack.
+     * @param policy The policy to use.
+     */
+    synchronized public void setRoutingPolicy(RoutingPolicy policy) {
+        this.policy = policy;
+    }
+
+    public void run() {
+        Thread[] laneThreads = startLanes();
+        try {
+            serveInputs();
+        } finally {
+            stopLanes(laneThreads);
+        }
+    }
+
+    /**
+     * Start a lane for every output port if the Turntable is pipelined.
+     * @return The threads running the lanes.
+     */
+    private Thread[] startLanes() {
+        if (slots == 1) {
+            return new Thread[0];
+        }
+
+        freeSlots.release(slots);
+        Thread[] threads = new Thread[4];
+        int started = 0;
+        for (int port = 0; port < 4; ++port) {
+            Connection conn = connections[port];
+            if (conn != null && conn.connType != ConnectionType.InputBelt) {
+                lanes[port] = new OutputLane(conn);
+                threads[started] = runtime.newThread(lanes[port], "Turntable " + id + " port " + port);
+                threads[started++].start();
             }
-            else if(conn.connType == ConnectionType.OutputSack) {
-                outputMap.put(conn.sack.getSackId(), port);
+        }
+        return Arrays.copyOf(threads, started);
+    }
+
+    private static void stopLanes(Thread[] laneThreads) {
+        for (Thread lane : laneThreads) {
+            lane.interrupt();
+        }
+
+        boolean interrupted = false;
+        for (Thread lane : laneThreads) {
+            while (true) {
+                try {
+                    lane.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    public void run() {
+    private void serveInputs() {
         // Run until thread is interrupted
-        while (!this.isInterrupted()) {
+        while (!Thread.currentThread().isInterrupted()) {
+            boolean served = false;
+
             // Iterate over all ports
             for (int port = 0; port < connections.length; ++port) {
                 Connection conn = connections[port];
@@ -104,33 +485,38 @@ public class Turntable extends Thread
                         if (!conn.belt.isEmpty()) {
                             // This condition won't change since one Conveyor can only be emptied by this Turntable.
                             try {
-                                Present present = conn.belt.takePresent();
-                                LOGGER.log(Level.INFO, "Taking " + present + " from belt " + conn.belt.getConveyorId());
-                                hasPresent = true;
-
-                                final String dest = present.destination();
-
-                                // Check if destination can be reached here
-                                final int outputPort = outputMap.get(destinations.get(dest));
-
-                                // Move present in
-                                move();
-                                // Turn if necessary
-                                turn(port, outputPort);
-                                // Move present out
-                                move();
-
-                                // Put present in either Sack or Conveyor
-                                if (connections[outputPort].connType == ConnectionType.OutputSack) {
-                                    // Will wait until Sack is empty
-                                    connections[outputPort].sack.putPresent(present);
-                                } else {
-                                    connections[outputPort].belt.putPresent(present);
+                                if (slots > 1) {
+                                    // Leave the presents on the belt until one can move in. Only this thread
+                                    // takes slots, so one stays free once it has been seen
+                                    freeSlots.acquire();
+                                    freeSlots.release();
                                 }
 
-                                hasPresent = false;
-
+                                int taken;
+                                long epoch = turnstile.enter();
+                                try {
+                                    taken = conn.belt.drainTo(intake, intake.length, epoch);
+                                    presentsTaken(taken, epoch);
+                                } finally {
+                                    turnstile.exit(epoch);
+                                }
+                                served = true;
+                                long takenAt = clock.now();
+                                for (int i = 0; i < taken; ++i) {
+                                    if (LOGGER.isLoggable(Level.INFO)) {
+                                        LOGGER.log(Level.INFO, "Taking " + store.present(intake[i]) + " from belt "
+                                                + conn.belt.getConveyorId());
+                                    }
+                                    recordTaken(intake[i], takenAt);
+                                }
 
+                                for (int i = 0; i < taken; ++i) {
+                                    if (slots == 1) {
+                                        transfer(port, intake[i], takenAt);
+                                    } else {
+                                        moveIn(port, intake[i]);
+                                    }
+                                }
                             } catch (InterruptedException e) {
                                 System.out.println("Turntable " + id + " is stopping.");
                                 return;
@@ -139,58 +525,233 @@ public class Turntable extends Thread
                     }
                 }
             }
+
+            // Every input was empty, sleep until a present is put on one of them
+            if (!served) {
+                try {
+                    inputSignal.await();
+                } catch (InterruptedException e) {
+                    System.out.println("Turntable " + id + " is stopping.");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move a present taken off an input across the Turntable, and out into a Sack or onto a belt.
+     * @param inputPort The port the present came in from.
+     * @param handle The handle of the present.
+     * @param takenAt When the present was taken off its input belt, in milliseconds on the machine's clock.
+     */
+    private void transfer(int inputPort, int handle, long takenAt) throws InterruptedException {
+        // Check if destination can be reached here
+        final int outputPort = outputPortFor(inputPort, store.getSackIndex(handle));
+
+        // Move present in
+        move();
+        // Turn if necessary
+        turn(inputPort, outputPort);
+        // Move present out
+        move();
+
+        handOut(connections[outputPort], handle);
+        recordHandedOn(takenAt, clock.now());
+    }
+
+    /**
+     * Move a present taken off an input in, turning if necessary, then leave it to the lane of its output
+     * port to move out while the Turntable takes the next present.
+     * @param inputPort The port the present came in from.
+     * @param handle The handle of the present, marked as arriving when it was taken.
+     */
+    private void moveIn(int inputPort, int handle) throws InterruptedException {
+        freeSlots.acquire();
+        final int outputPort = outputPortFor(inputPort, store.getSackIndex(handle));
+
+        move();
+        turn(inputPort, outputPort);
+
+        lanes[outputPort].depart(handle);
+    }
+
+    /**
+     * Put a present in either a Sack or onto a belt, waiting for space.
+     * @param output The output connection.
+     * @param handle The handle of the present, which has moved out.
+     */
+    private void handOut(Connection output, int handle) throws InterruptedException {
+        if (output.connType == ConnectionType.OutputSack) {
+            putInSack(output, handle);
+        } else {
+            store.setArrivalTime(handle, clock.now());
+            while (!handOn(output, handle)) {
+                output.belt.awaitSpace();
+            }
+        }
+    }
+
+    /**
+     * Moves the presents out through one output port of a pipelined Turntable, one after another.
+     */
+    private class OutputLane implements Runnable {
+        private final Connection output;
+
+        /** The handles of presents which have moved in and turned, waiting to move out, at most one per slot. */
+        @GuardedBy("lock")
+        private final int[] departures = new int[slots];
+        @GuardedBy("lock")
+        private int first = 0;
+        @GuardedBy("lock")
+        private int waiting = 0;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        /** Signalled when a present is left to move out. */
+        private final Condition departing = lock.newCondition();
+
+        OutputLane(Connection output) {
+            this.output = output;
+        }
+
+        void depart(int handle) {
+            lock.lock();
+            try {
+                departures[(first + waiting) % departures.length] = handle;
+                ++waiting;
+                departing.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return The handle of the next present to move out, waiting for one.
+         */
+        private int next() throws InterruptedException {
+            lock.lock();
+            try {
+                while (waiting == 0) {
+                    departing.await();
+                }
+                int handle = departures[first];
+                first = (first + 1) % departures.length;
+                --waiting;
+                return handle;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int handle = next();
+                    // Read before the present is released into a Sack
+                    long takenAt = store.getArrivalTime(handle);
+
+                    move();
+                    handOut(output, handle);
+                    recordHandedOn(takenAt, clock.now());
+                    freeSlots.release();
+                }
+            } catch (InterruptedException e) {
+                // The Turntable is stopping
+            }
+        }
+    }
+
+    /**
+     * Put a present in a Sack, recording how long the Turntable is held up if the Sack is full.
+     * @param output The connection to the Sack to put the present in.
+     * @param handle The handle of the present.
+     */
+    private void putInSack(Connection output, int handle) throws InterruptedException {
+        if (handOn(output, handle)) {
+            return;
+        }
+
+        // Will wait until Sack is empty
+        setBlocked(true);
+        long startTime = clock.now();
+        do {
+            output.sack.awaitSpace();
+        } while (!handOn(output, handle));
+        recordSackBlocked(clock.now() - startTime);
+        setBlocked(false);
+    }
+
+    /**
+     * Move the present off the Turntable into a Sack or onto a belt, if there is space, within its Turnstile.
+     * @param output The output connection.
+     * @param handle The handle of the present.
+     * @return True if the present was handed on.
+     */
+    private boolean handOn(Connection output, int handle) {
+        long epoch = turnstile.enter();
+        try {
+            boolean placed = (output.connType == ConnectionType.OutputSack)
+                    ? output.sack.offerHandle(handle, clock.now(), epoch)
+                    : output.belt.offerHandle(handle, epoch);
+            if (placed) {
+                presentHandedOn(epoch);
+            }
+            return placed;
+        } finally {
+            turnstile.exit(epoch);
         }
     }
 
     void turn(int inputPort, int outputPort) throws InterruptedException {
-        if (Math.abs(inputPort - outputPort) % 2 != 0) {
-            sleep(ROTATION_DELAY);
+        if (needsRotation(inputPort, outputPort)) {
+            clock.sleep(ROTATION_DELAY);
         }
     }
 
     void move() throws InterruptedException {
-        sleep(MOVE_DELAY);
+        clock.sleep(MOVE_DELAY);
     }
 
+    /** The kinds of connection a port can have. */
+    private static final ConfigTokenizer.Vocabulary CONNECTIONS = new ConfigTokenizer.Vocabulary("null", "ib", "ob", "os");
+
     /**
-     * Factory that constructs a Turntable from a String.
-     * @param line String containing data about Turntable.
+     * Factory that constructs a Turntable from a line of the configuration.
+     * @param config The configuration, at a line containing data about Turntable (e.g. A N ib 1 E os 1 S null W ob 2).
      * @param belts An array of Conveyor objects that the Turntable may connect with.
      * @param sacks An array of Sack objects that the Turntable may connect with.
      * @return The newly constructed Turntable.
      * @see Sack
      * @see Conveyor
      */
-    public static Turntable parseString(String line, Conveyor[] belts, Sack[] sacks) {
-        Scanner inputStream = new Scanner(line);
-        String tableId = inputStream.next();
+    public static Turntable parse(ConfigTokenizer config, Conveyor[] belts, Sack[] sacks) {
+        String tableId = config.next("turntable ID");
         Turntable turntable = new Turntable(tableId);
-        int connId = 0;
 
         for(int i = 0; i < 4; i++){
-            inputStream.next(); // Skip direction
-            String type = inputStream.next();
-
-            if (!"null".equals(type)){
-                connId = inputStream.nextInt();
-
-                Connection connection = null;
-                switch (type) {
-                    case "os":
-                        connection = new Connection(ConnectionType.OutputSack, null, sacks[connId - 1]);
-                        break;
-                    case "ib":
-                        connection = new Connection(ConnectionType.InputBelt, belts[connId - 1], null);
-                        break;
-                    case "ob":
-                        connection = new Connection(ConnectionType.OutputBelt, belts[connId - 1], null);
-                        break;
-                }
+            config.skip("direction");
+
+            Connection connection = null;
+            switch (config.nextWord(CONNECTIONS, "connection type")) {
+                case 1:
+                    connection = new Connection(ConnectionType.InputBelt, belts[config.nextIndex("belt", belts.length)], null);
+                    break;
+                case 2:
+                    connection = new Connection(ConnectionType.OutputBelt, belts[config.nextIndex("belt", belts.length)], null);
+                    break;
+                case 3:
+                    connection = new Connection(ConnectionType.OutputSack, null, sacks[config.nextIndex("sack", sacks.length)]);
+                    break;
+            }
+
+            if (connection != null) {
                 turntable.addConnection(i, connection);
             }
         }
 
-        LOGGER.log(Level.INFO, "Set up Turntable " + tableId);
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Set up Turntable " + tableId);
+        }
         return turntable;
     }
 }
@@ -0,0 +1,46 @@
+/**
+ * The live state of a Turntable, as published over JMX while the machine runs.
+ * @author Jacob
+ * @see MachineMBeans
+ */
+public interface TurntableMXBean {
+    /**
+     * @return The ID of the Turntable.
+     */
+    String getTurntableId();
+
+    /**
+     * @return True while the Turntable is moving a present.
+     */
+    boolean isBusy();
+
+    /**
+     * @return True while the Turntable is waiting for a full Sack to be emptied.
+     */
+    boolean isBlocked();
+
+    /**
+     * @return The number of presents handed on to a belt or Sack.
+     */
+    long getPresentsRouted();
+
+    /**
+     * @return Number of times a present was held up by a full Sack.
+     */
+    int getSackBlockedCount();
+
+    /**
+     * @return Total seconds spent waiting for a full Sack to be emptied.
+     */
+    long getSackBlockedTime();
+
+    /**
+     * @return The 99th percentile of milliseconds presents waited on an input belt.
+     */
+    long getWaitLatencyP99();
+
+    /**
+     * @return The 99th percentile of milliseconds from taking a present to handing it on.
+     */
+    long getTransitLatencyP99();
+}